@@ -0,0 +1,104 @@
+-- Benchmark da consulta de saldo histórico sobre um ledger de 10 milhões de transações.
+--
+-- Uso (PostgreSQL 15, banco descartável):
+--   psql -d wallet_bench -f docs/benchmarks/historical-balance.sql
+--
+-- O script cria a tabela transactions no formato do changelog, gera 10.000 carteiras com 1.000 transações
+-- cada e executa EXPLAIN (ANALYZE, BUFFERS) da subconsulta de transações de WalletRepository.findHistoricalBalance
+-- com o índice antigo (from_user_id) e com o índice de cobertura (from_user_id, created_at DESC, seq DESC)
+-- INCLUDE (balance_after). Compare o tipo de plano, "Buffers: shared hit/read" e o "Execution Time" das duas execuções.
+-- Os resultados medidos estão no fim do arquivo.
+
+\timing on
+
+DROP TABLE IF EXISTS transactions;
+CREATE TABLE transactions
+(
+    id            UUID DEFAULT gen_random_uuid(),
+    from_user_id  VARCHAR(255),
+    to_user_id    VARCHAR(255),
+    type          VARCHAR(255)   NOT NULL,
+    amount        DECIMAL(19, 2) NOT NULL,
+    balance_after DECIMAL(19, 2),
+    description   VARCHAR(255),
+    slot          INT,
+    seq           BIGINT         NOT NULL,
+    created_at    TIMESTAMP WITHOUT TIME ZONE,
+    CONSTRAINT pk_transactions PRIMARY KEY (id)
+);
+
+INSERT INTO transactions (from_user_id, type, amount, balance_after, description, seq, created_at)
+SELECT 'user' || w,
+       'DEPOSIT',
+       10.00,
+       10.00 * n,
+       'Deposit',
+       n,
+       TIMESTAMP '2026-01-01' + (n * INTERVAL '5 minutes') + (w * INTERVAL '1 millisecond')
+FROM generate_series(1, 10000) AS w,
+     generate_series(1, 1000) AS n;
+
+CREATE INDEX idx_created_at ON transactions (created_at);
+CREATE INDEX idx_from_user_id ON transactions (from_user_id);
+CREATE UNIQUE INDEX uk_transactions_from_user_slot_seq ON transactions (from_user_id, slot, seq) NULLS NOT DISTINCT;
+VACUUM ANALYZE transactions;
+
+-- Antes: índice só em from_user_id
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT balance_after
+FROM transactions
+WHERE from_user_id = 'user4242' AND created_at <= TIMESTAMP '2026-01-02 12:00:00'
+ORDER BY created_at DESC, seq DESC
+LIMIT 1;
+
+-- Depois: índice de cobertura do changeset 1760745600000-25
+CREATE INDEX idx_transactions_from_user_created_at_seq
+    ON transactions (from_user_id, created_at DESC, seq DESC) INCLUDE (balance_after);
+DROP INDEX idx_from_user_id;
+-- O VACUUM atualiza o visibility map, sem o qual o Index Only Scan volta a ler o heap
+VACUUM ANALYZE transactions;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT balance_after
+FROM transactions
+WHERE from_user_id = 'user4242' AND created_at <= TIMESTAMP '2026-01-02 12:00:00'
+ORDER BY created_at DESC, seq DESC
+LIMIT 1;
+
+-- Resultados (PostgreSQL 16.4, 1 vCPU Xeon, 5 GB de RAM, configuração padrão, 10.000.000 de linhas; EXPLAIN
+-- logo depois do VACUUM ANALYZE de cada etapa, com parte das páginas ainda fora do shared_buffers):
+--
+-- Antes:
+--   Limit  (cost=446.56..891.68 rows=1 width=21) (actual time=7.597..7.599 rows=1 loops=1)
+--     Buffers: shared hit=43 read=257
+--     ->  Incremental Sort  (cost=446.56..190956.54 rows=428 width=21) (actual time=7.594..7.595 rows=1 loops=1)
+--           Sort Key: created_at DESC, seq DESC
+--           Presorted Key: created_at
+--           Full-sort Groups: 1  Sort Method: quicksort  Average Memory: 25kB  Peak Memory: 25kB
+--           Buffers: shared hit=43 read=257
+--           ->  Index Scan Backward using idx_created_at on transactions  (cost=0.43..190937.27 rows=428 width=21) (actual time=1.531..7.576 rows=2 loops=1)
+--                 Index Cond: (created_at <= '2026-01-02 12:00:00'::timestamp without time zone)
+--                 Filter: ((from_user_id)::text = 'user4242'::text)
+--                 Rows Removed by Filter: 15757
+--                 Buffers: shared hit=43 read=257
+--   Planning Time: 0.426 ms
+--   Execution Time: 7.630 ms
+--
+-- Depois:
+--   Limit  (cost=0.56..0.61 rows=1 width=21) (actual time=0.048..0.049 rows=1 loops=1)
+--     Buffers: shared hit=1 read=4
+--     ->  Index Only Scan using idx_transactions_from_user_created_at_seq on transactions  (cost=0.56..21.04 rows=424 width=21) (actual time=0.046..0.046 rows=1 loops=1)
+--           Index Cond: ((from_user_id = 'user4242'::text) AND (created_at <= '2026-01-02 12:00:00'::timestamp without time zone))
+--           Heap Fetches: 0
+--           Buffers: shared hit=1 read=4
+--   Planning Time: 0.257 ms
+--   Execution Time: 0.065 ms
+--
+-- Sem o índice composto o planejador não usa idx_from_user_id (que exigiria ler e ordenar as ~430 transações
+-- da carteira até o timestamp): percorre idx_created_at de trás para frente, descarta as transações das outras
+-- carteiras e, por causa do desempate por seq, ainda precisa ler a transação seguinte da carteira para fechar o
+-- grupo do Incremental Sort (15.757 linhas, 300 páginas). O custo cresce com o número de transações de outras
+-- carteiras depois da última da carteira pedida: uma carteira pouco movimentada faz a varredura ler boa parte
+-- do índice. Com o índice de cobertura a ordem (created_at DESC, seq DESC) já vem do índice e a consulta é uma
+-- descida na árvore (5 páginas, 0 heap fetches), independente do tamanho do ledger e da atividade das outras
+-- carteiras.
@@ -0,0 +1,69 @@
+package com.rpay.wallet.config;
+
+import com.rpay.wallet.config.ReadWriteRoutingDataSource.Route;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Dois pools de conexões: o de escrita (spring.datasource) e o de leitura (wallet.read-datasource), que por
+ * padrão aponta para o mesmo banco. Consultas em transações readOnly não esperam na fila do pool atrás de
+ * escritas que seguram o lock de carteiras, e podem ir para uma réplica configurando wallet.read-datasource.url.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "wallet.read-datasource", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class DataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource writeDataSource(DataSourceProperties dataSourceProperties) {
+        return dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    public HikariDataSource readDataSource(@Qualifier("writeDataSource") HikariDataSource writeDataSource,
+                                           WalletProperties walletProperties) {
+        WalletProperties.ReadDataSource properties = walletProperties.getReadDataSource();
+
+        HikariDataSource readDataSource = new HikariDataSource();
+        writeDataSource.copyStateTo(readDataSource);
+        if (StringUtils.hasText(properties.getUrl())) {
+            readDataSource.setJdbcUrl(properties.getUrl());
+            readDataSource.setUsername(properties.getUsername());
+            readDataSource.setPassword(properties.getPassword());
+        }
+        readDataSource.setPoolName((writeDataSource.getPoolName() != null ? writeDataSource.getPoolName() : "HikariPool")
+                + "-read");
+        readDataSource.setMaximumPoolSize(properties.getMaximumPoolSize());
+        if (writeDataSource.getMinimumIdle() > properties.getMaximumPoolSize()) {
+            readDataSource.setMinimumIdle(properties.getMaximumPoolSize());
+        }
+        readDataSource.setReadOnly(true);
+        return readDataSource;
+    }
+
+    /**
+     * DataSource usado pelo JPA, JdbcTemplate e Liquibase. A conexão física só é obtida no primeiro statement,
+     * quando o flag readOnly da transação já está definido e o pool pode ser escolhido.
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("writeDataSource") HikariDataSource writeDataSource,
+                                 @Qualifier("readDataSource") HikariDataSource readDataSource) {
+        ReadWriteRoutingDataSource routingDataSource = new ReadWriteRoutingDataSource();
+        routingDataSource.setTargetDataSources(Map.of(Route.WRITE, writeDataSource, Route.READ, readDataSource));
+        routingDataSource.setDefaultTargetDataSource(writeDataSource);
+        routingDataSource.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+}
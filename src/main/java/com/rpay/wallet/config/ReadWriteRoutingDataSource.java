@@ -0,0 +1,23 @@
+package com.rpay.wallet.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Escolhe o pool pela transação corrente: transações readOnly usam o pool de leitura e todo o resto (transações
+ * de escrita e acessos fora de transação) usa o pool de escrita. Precisa ficar atrás de um
+ * LazyConnectionDataSourceProxy, porque o JpaTransactionManager só marca a transação como readOnly depois de
+ * pedir a conexão.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+    public enum Route {
+        READ,
+        WRITE
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return TransactionSynchronizationManager.isCurrentTransactionReadOnly() ? Route.READ : Route.WRITE;
+    }
+}
@@ -0,0 +1,329 @@
+package com.rpay.wallet.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "wallet")
+public class WalletProperties {
+
+    /**
+     * Estratégia usada para aplicar débitos e créditos nas carteiras
+     */
+    private WriteMode writeMode = WriteMode.PESSIMISTIC;
+
+    private Sharding sharding = new Sharding();
+
+    private CommandQueue commandQueue = new CommandQueue();
+
+    private Optimistic optimistic = new Optimistic();
+
+    private LockWait lockWait = new LockWait();
+
+    private Bulk bulk = new Bulk();
+
+    private Async async = new Async();
+
+    private Idempotency idempotency = new Idempotency();
+
+    private BalanceCheckpoint balanceCheckpoint = new BalanceCheckpoint();
+
+    private Series series = new Series();
+
+    private HistoricalCache historicalCache = new HistoricalCache();
+
+    private BalanceCache balanceCache = new BalanceCache();
+
+    private ReadDataSource readDataSource = new ReadDataSource();
+
+    public enum WriteMode {
+        /**
+         * SELECT ... FOR UPDATE na carteira, alteração da entidade e INSERT da transação
+         */
+        PESSIMISTIC,
+        /**
+         * UPDATE ... RETURNING da carteira e INSERT da transação em um único statement (PostgreSQL)
+         */
+        ATOMIC,
+        /**
+         * Comandos enfileirados por carteira e aplicados em lote (group commit) em uma única transação
+         */
+        QUEUED,
+        /**
+         * Leitura da carteira sem lock; o @Version detecta alterações concorrentes no commit e a operação é repetida
+         */
+        OPTIMISTIC
+    }
+
+    @Data
+    public static class Sharding {
+
+        /**
+         * Quantidade máxima de slots de saldo por carteira
+         */
+        private int maxSlots = 64;
+
+        /**
+         * Intervalo de recarga da lista de carteiras sharded a partir do banco
+         */
+        private Duration refreshInterval = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class CommandQueue {
+
+        /**
+         * Máximo de comandos de uma carteira aplicados na mesma transação
+         */
+        private int maxBatchSize = 100;
+
+        /**
+         * Threads que drenam as filas; cada uma usa uma conexão do pool enquanto aplica um lote
+         */
+        private int drainers = 4;
+    }
+
+    @Data
+    public static class Idempotency {
+
+        /**
+         * Máximo de transações mantidas no cache de replays (0 desliga o cache)
+         */
+        private long cacheMaxSize = 10_000;
+
+        /**
+         * Tempo que uma transação fica no cache de replays após ser gravada
+         */
+        private Duration cacheTtl = Duration.ofMinutes(10);
+
+        /**
+         * Tempo que uma chave continua valendo; arredondado para cima em dias inteiros, que é a granularidade
+         * das partições de idempotency_key
+         */
+        private Duration retention = Duration.ofDays(7);
+
+        /**
+         * Partições diárias criadas com antecedência, a partir de hoje
+         */
+        private int partitionsAhead = 3;
+
+        /**
+         * Intervalo entre as execuções do job que cria as próximas partições e remove as expiradas
+         */
+        private Duration purgeInterval = Duration.ofHours(1);
+
+        private Bloom bloom = new Bloom();
+
+        @Data
+        public static class Bloom {
+
+            /**
+             * Usa os filtros de Bloom dos dias anteriores para pular a verificação desses dias na reserva
+             * de chaves novas
+             */
+            private boolean enabled = true;
+
+            /**
+             * Taxa de falsos positivos usada para dimensionar o filtro de cada dia
+             */
+            private double falsePositiveRate = 0.01;
+
+            /**
+             * Intervalo entre as verificações que criam os filtros dos dias encerrados e descartam os expirados
+             */
+            private Duration refreshInterval = Duration.ofMinutes(1);
+
+            /**
+             * Espera após a meia-noite antes de montar o filtro do dia encerrado; deve ser maior que a transação
+             * mais longa, para que nenhuma reserva daquele dia ainda esteja sem commit
+             */
+            private Duration buildDelay = Duration.ofMinutes(1);
+        }
+    }
+
+    @Data
+    public static class BalanceCheckpoint {
+
+        /**
+         * Intervalo entre as execuções do job que grava os checkpoints de saldo dos dias encerrados
+         */
+        private Duration interval = Duration.ofMinutes(10);
+
+        /**
+         * Espera após a meia-noite antes de gravar os checkpoints do dia encerrado; deve ser maior que a
+         * transação mais longa, para que nenhuma transação daquele dia ainda esteja sem commit
+         */
+        private Duration delay = Duration.ofMinutes(5);
+    }
+
+    @Data
+    public static class Series {
+
+        /**
+         * Máximo de pontos de uma série de saldos
+         */
+        private int maxPoints = 10_000;
+    }
+
+    @Data
+    public static class HistoricalCache {
+
+        /**
+         * Máximo de saldos históricos mantidos no cache (0 desliga o cache)
+         */
+        private long maxSize = 100_000;
+
+        /**
+         * Saldos em timestamps mais recentes que now - safety-window não são guardados; deve ser maior que a
+         * transação mais longa, para que nenhuma transação anterior ao timestamp ainda esteja sem commit
+         */
+        private Duration safetyWindow = Duration.ofMinutes(5);
+    }
+
+    @Data
+    public static class BalanceCache {
+
+        /**
+         * Quanto o saldo em cache pode ficar atrás de escritas feitas por outros nós
+         */
+        private Mode mode = Mode.BOUNDED;
+
+        /**
+         * Máximo de carteiras mantidas no cache
+         */
+        private long maxSize = 100_000;
+
+        /**
+         * Tempo que um saldo fica no cache após ser gravado, no modo BOUNDED
+         */
+        private Duration maxStaleness = Duration.ofSeconds(5);
+
+        public enum Mode {
+            /**
+             * Sem cache: todo GET /balance lê a carteira do banco
+             */
+            OFF,
+            /**
+             * O saldo expira após max-staleness, o atraso máximo em relação a escritas de outros nós
+             */
+            BOUNDED,
+            /**
+             * O saldo só sai do cache por tamanho; só é seguro com um único nó, em que toda escrita passa por ele
+             */
+            UNBOUNDED
+        }
+    }
+
+    @Data
+    public static class ReadDataSource {
+
+        /**
+         * Envia as transações readOnly para um pool de conexões separado (DataSourceConfig)
+         */
+        private boolean enabled = true;
+
+        /**
+         * URL de uma réplica de leitura; vazio usa o mesmo banco de spring.datasource.url
+         */
+        private String url;
+
+        private String username;
+
+        private String password;
+
+        /**
+         * Tamanho do pool de leitura; os demais parâmetros seguem spring.datasource.hikari
+         */
+        private int maximumPoolSize = 10;
+    }
+
+    @Data
+    public static class Async {
+
+        /**
+         * Liga o poller que aplica os comandos aceitos com Prefer: respond-async. Para manter a ordem por
+         * carteira, deixe habilitado em apenas um nó
+         */
+        private boolean pollerEnabled = true;
+
+        /**
+         * Intervalo entre os ciclos do poller
+         */
+        private Duration pollInterval = Duration.ofMillis(200);
+
+        /**
+         * Comandos pendentes aplicados por transação
+         */
+        private int batchSize = 500;
+
+        /**
+         * Ciclos em que um comando pode falhar por erro transitório (lock ocupado, falha de conexão) antes de
+         * ser marcado como FAILED
+         */
+        private int maxAttempts = 10;
+    }
+
+    @Data
+    public static class Bulk {
+
+        /**
+         * Registros de uma importação NDJSON aplicados e commitados por transação
+         */
+        private int chunkSize = 1000;
+    }
+
+    @Data
+    public static class LockWait {
+
+        /**
+         * Quanto uma operação espera pelo lock da carteira antes de desistir com 429
+         */
+        private Mode mode = Mode.WAIT;
+
+        /**
+         * Tempo máximo de espera pelos locks da transação no modo TIMEOUT
+         */
+        private Duration timeout = Duration.ofMillis(200);
+
+        /**
+         * Valor do header Retry-After devolvido quando a espera é abortada
+         */
+        private Duration retryAfter = Duration.ofSeconds(1);
+
+        public enum Mode {
+            /**
+             * Espera o lock pelo tempo que for necessário
+             */
+            WAIT,
+            /**
+             * SELECT ... FOR UPDATE NOWAIT: falha na hora se a carteira estiver travada
+             */
+            NOWAIT,
+            /**
+             * Espera até lock-wait.timeout (lock_timeout local da transação, PostgreSQL)
+             */
+            TIMEOUT
+        }
+    }
+
+    @Data
+    public static class Optimistic {
+
+        /**
+         * Total de tentativas (incluindo a primeira) antes de responder 409
+         */
+        private int maxAttempts = 5;
+
+        /**
+         * Espera base entre tentativas; dobra a cada conflito e é sorteada entre zero e o teto (full jitter)
+         */
+        private Duration initialBackoff = Duration.ofMillis(5);
+
+        /**
+         * Teto da espera entre tentativas
+         */
+        private Duration maxBackoff = Duration.ofMillis(100);
+    }
+}
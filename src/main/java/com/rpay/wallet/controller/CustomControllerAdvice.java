@@ -1,9 +1,15 @@
 package com.rpay.wallet.controller;
 
 
+import com.rpay.wallet.dto.IdempotentResponse;
 import com.rpay.wallet.exception.CustomException;
+import com.rpay.wallet.exception.IdempotentReplayException;
+import com.rpay.wallet.exception.WalletBusyException;
 import org.slf4j.Logger;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.ErrorResponse;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -15,6 +21,8 @@ import java.util.List;
 @RestControllerAdvice
 public class CustomControllerAdvice {
 
+    public static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+
     private final Logger logger = org.slf4j.LoggerFactory.getLogger(CustomControllerAdvice.class);
 
     @ExceptionHandler(CustomException.class)
@@ -23,6 +31,22 @@ public class CustomControllerAdvice {
                 .build();
     }
 
+    @ExceptionHandler(WalletBusyException.class)
+    public ErrorResponse handleWalletBusyException(WalletBusyException walletBusyException) {
+        return ErrorResponse.builder(walletBusyException, walletBusyException.getHttpStatus(), walletBusyException.getMessage())
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(walletBusyException.getRetryAfter().toSeconds()))
+                .build();
+    }
+
+    @ExceptionHandler(IdempotentReplayException.class)
+    public ResponseEntity<byte[]> handleIdempotentReplayException(IdempotentReplayException replayException) {
+        IdempotentResponse response = replayException.getResponse();
+        return ResponseEntity.status(response.getStatus())
+                .header(IDEMPOTENT_REPLAYED, "true")
+                .contentType(response.isSuccess() ? MediaType.APPLICATION_JSON : MediaType.APPLICATION_PROBLEM_JSON)
+                .body(response.getBody());
+    }
+
     @ExceptionHandler(MethodArgumentNotValidException.class)
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public ErrorResponse handleValidationExceptions(MethodArgumentNotValidException ex) {
@@ -1,34 +1,53 @@
 package com.rpay.wallet.controller;
 
 import com.rpay.wallet.dto.BalanceResponse;
+import com.rpay.wallet.dto.BatchItemResult;
+import com.rpay.wallet.dto.BatchTransferRequest;
 import com.rpay.wallet.dto.CreateWalletRequest;
+import com.rpay.wallet.dto.SlotConfigurationRequest;
 import com.rpay.wallet.dto.TransactionRequest;
 import com.rpay.wallet.dto.TransferRequest;
+import com.rpay.wallet.model.PendingCommand;
 import com.rpay.wallet.model.Transaction;
 import com.rpay.wallet.model.Wallet;
+import com.rpay.wallet.service.WalletCommand;
 import com.rpay.wallet.service.WalletService;
 import jakarta.validation.Valid;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.InputStream;
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
 
+import static org.springframework.http.HttpStatus.ACCEPTED;
 import static org.springframework.http.HttpStatus.CREATED;
 import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON_VALUE;
 
 @RestController
 @RequestMapping("/api/wallets")
 public class WalletController {
 
+    /**
+     * Com este header (RFC 7240) deposit, withdraw e transfer respondem 202 e são aplicados em background
+     */
+    private static final String RESPOND_ASYNC = "Prefer=respond-async";
+
     private final WalletService walletService;
 
     public WalletController(WalletService walletService) {
@@ -41,6 +60,12 @@ public class WalletController {
         return walletService.createWallet(request.getUserId());
     }
 
+    @ResponseStatus(OK)
+    @PutMapping("/{userId}/slots")
+    public Wallet configureSlots(@PathVariable String userId, @Valid @RequestBody SlotConfigurationRequest request) {
+        return walletService.configureSlots(userId, request.getSlotCount());
+    }
+
     @ResponseStatus(OK)
     @GetMapping("/{userId}/balance")
     public BalanceResponse getBalance(@PathVariable String userId) {
@@ -57,6 +82,26 @@ public class WalletController {
         return new BalanceResponse(balance);
     }
 
+    @ResponseStatus(OK)
+    @GetMapping(value = "/{userId}/balance/series", produces = APPLICATION_JSON_VALUE)
+    public StreamingResponseBody getBalanceSeries(
+            @PathVariable String userId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam Duration interval) {
+        BigDecimal opening = walletService.openBalanceSeries(userId, from, to, interval);
+        return output -> walletService.writeBalanceSeries(userId, from, to, interval, opening, output);
+    }
+
+    @ResponseStatus(OK)
+    @GetMapping("/{userId}/transactions")
+    public List<Transaction> getTransactions(@PathVariable String userId,
+                                             @RequestParam(required = false) Integer slot,
+                                             @RequestParam(defaultValue = "0") long afterSeq,
+                                             @RequestParam(defaultValue = "100") int limit) {
+        return walletService.getTransactions(userId, slot, afterSeq, limit);
+    }
+
     @ResponseStatus(CREATED)
     @PostMapping("/deposit")
     public Transaction deposit(@Valid @RequestBody TransactionRequest request,
@@ -64,6 +109,13 @@ public class WalletController {
         return walletService.deposit(request, idempotencyKey);
     }
 
+    @ResponseStatus(ACCEPTED)
+    @PostMapping(value = "/deposit", headers = RESPOND_ASYNC)
+    public PendingCommand depositAsync(@Valid @RequestBody TransactionRequest request,
+                                       @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        return walletService.submit(WalletCommand.deposit(request, idempotencyKey));
+    }
+
     @ResponseStatus(CREATED)
     @PostMapping("/withdraw")
     public Transaction withdraw(@Valid @RequestBody TransactionRequest request,
@@ -71,10 +123,44 @@ public class WalletController {
         return walletService.withdraw(request, idempotencyKey);
     }
 
+    @ResponseStatus(ACCEPTED)
+    @PostMapping(value = "/withdraw", headers = RESPOND_ASYNC)
+    public PendingCommand withdrawAsync(@Valid @RequestBody TransactionRequest request,
+                                        @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        return walletService.submit(WalletCommand.withdraw(request, idempotencyKey));
+    }
+
     @ResponseStatus(CREATED)
     @PostMapping("/transfer")
     public Transaction transfer(@Valid @RequestBody TransferRequest request,
                                 @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
         return walletService.transfer(request, idempotencyKey);
     }
+
+    @ResponseStatus(ACCEPTED)
+    @PostMapping(value = "/transfer", headers = RESPOND_ASYNC)
+    public PendingCommand transferAsync(@Valid @RequestBody TransferRequest request,
+                                        @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        return walletService.submit(WalletCommand.transfer(request, idempotencyKey));
+    }
+
+    @ResponseStatus(OK)
+    @GetMapping("/commands/{id}")
+    public PendingCommand getCommand(@PathVariable UUID id) {
+        return walletService.getCommand(id);
+    }
+
+    @ResponseStatus(OK)
+    @PostMapping("/transfers/batch")
+    public List<BatchItemResult> transferBatch(@Valid @RequestBody BatchTransferRequest request,
+                                               @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        return walletService.transferBatch(request.getTransfers(), idempotencyKey);
+    }
+
+    @ResponseStatus(OK)
+    @PostMapping(value = "/deposits/bulk", consumes = APPLICATION_NDJSON_VALUE, produces = APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody depositBulk(InputStream body,
+                                             @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        return output -> walletService.depositBulk(body, output, idempotencyKey);
+    }
 }
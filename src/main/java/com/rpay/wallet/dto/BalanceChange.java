@@ -0,0 +1,22 @@
+package com.rpay.wallet.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Transação lida para montar a série de saldos: o saldo após ela (null se gravada com a carteira sharded) e a
+ * variação que ela causou no saldo
+ */
+@Data
+@AllArgsConstructor
+public class BalanceChange {
+
+    LocalDateTime timestamp;
+
+    BigDecimal balanceAfter;
+
+    BigDecimal change;
+}
@@ -0,0 +1,19 @@
+package com.rpay.wallet.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Saldo da carteira em um instante: um ponto da série de saldos
+ */
+@Data
+@AllArgsConstructor
+public class BalancePoint {
+
+    LocalDateTime timestamp;
+
+    BigDecimal balance;
+}
@@ -0,0 +1,44 @@
+package com.rpay.wallet.dto;
+
+import com.rpay.wallet.exception.CustomException;
+import com.rpay.wallet.exception.IdempotentReplayException;
+import com.rpay.wallet.model.Transaction;
+import com.rpay.wallet.service.CommandResult;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Resultado de um item de uma operação em lote, na mesma posição da requisição
+ */
+@Data
+@AllArgsConstructor
+public class BatchItemResult {
+
+    private int index;
+
+    private int status;
+
+    private Transaction transaction;
+
+    private String error;
+
+    public static BatchItemResult of(int index, CommandResult result) {
+        return result.isSuccess() ? success(index, result.getTransaction()) : failure(index, result.getError());
+    }
+
+    public static BatchItemResult success(int index, Transaction transaction) {
+        return new BatchItemResult(index, 201, transaction, null);
+    }
+
+    public static BatchItemResult failure(int index, RuntimeException error) {
+        if (error instanceof IdempotentReplayException replay) {
+            return failure(index, replay.getResponse().getStatus(), replay.getMessage());
+        }
+        int status = error instanceof CustomException customException ? customException.getHttpStatus().value() : 500;
+        return failure(index, status, status == 500 ? "An unexpected error occurred." : error.getMessage());
+    }
+
+    public static BatchItemResult failure(int index, int status, String error) {
+        return new BatchItemResult(index, status, null, error);
+    }
+}
@@ -0,0 +1,21 @@
+package com.rpay.wallet.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchTransferRequest {
+
+    @Valid
+    @NotEmpty(message = "Transfers are required")
+    @Size(max = 10000, message = "At most 10000 transfers per batch")
+    private List<TransferRequest> transfers;
+}
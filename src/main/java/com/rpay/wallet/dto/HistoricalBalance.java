@@ -0,0 +1,23 @@
+package com.rpay.wallet.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Resultado da consulta de saldo histórico: a criação da carteira, o balance_after da última transação até o
+ * timestamp e o instante dessa transação (null se não há transação até ele). O balance_after é null quando a
+ * transação foi gravada com a carteira sharded.
+ */
+@Data
+@AllArgsConstructor
+public class HistoricalBalance {
+
+    LocalDateTime walletCreatedAt;
+
+    BigDecimal balance;
+
+    LocalDateTime transactionAt;
+}
@@ -0,0 +1,30 @@
+package com.rpay.wallet.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Resposta gravada para uma chave de idempotência: status HTTP e corpo JSON, exatamente como enviados
+ * na primeira execução
+ */
+@Data
+@AllArgsConstructor
+public class IdempotentResponse {
+
+    /**
+     * ID da transação; registros anteriores ao snapshot só têm este campo
+     */
+    private String referenceId;
+
+    private Integer status;
+
+    private byte[] body;
+
+    public boolean isStored() {
+        return status != null;
+    }
+
+    public boolean isSuccess() {
+        return status != null && status < 400;
+    }
+}
@@ -0,0 +1,17 @@
+package com.rpay.wallet.dto;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SlotConfigurationRequest {
+
+    @NotNull(message = "Slot count is required")
+    @PositiveOrZero(message = "Slot count must be zero or positive")
+    private Integer slotCount;
+}
@@ -0,0 +1,19 @@
+package com.rpay.wallet.exception;
+
+import com.rpay.wallet.dto.IdempotentResponse;
+import lombok.Getter;
+
+/**
+ * A chave de idempotência já foi processada: a resposta gravada é devolvida como está pelo
+ * CustomControllerAdvice, sem passar pelo fluxo normal do controller
+ */
+@Getter
+public class IdempotentReplayException extends RuntimeException {
+
+    private final IdempotentResponse response;
+
+    public IdempotentReplayException(IdempotentResponse response, String message) {
+        super(message);
+        this.response = response;
+    }
+}
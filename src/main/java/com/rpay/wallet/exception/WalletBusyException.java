@@ -0,0 +1,21 @@
+package com.rpay.wallet.exception;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+import static org.springframework.http.HttpStatus.TOO_MANY_REQUESTS;
+
+/**
+ * A carteira está travada por outra operação além do tempo de espera configurado; o cliente pode repetir
+ */
+@Getter
+public class WalletBusyException extends CustomException {
+
+    private final Duration retryAfter;
+
+    public WalletBusyException(String message, Duration retryAfter) {
+        super(TOO_MANY_REQUESTS, message);
+        this.retryAfter = retryAfter;
+    }
+}
@@ -0,0 +1,39 @@
+package com.rpay.wallet.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Saldo de uma carteira no fim de um dia em que ela movimentou, gravado pelo BalanceCheckpointService
+ */
+@Data
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "balance_checkpoints")
+@IdClass(BalanceCheckpointId.class)
+public class BalanceCheckpoint {
+
+    @Id
+    private String userId;
+
+    @Id
+    private LocalDate checkpointDate;
+
+    @Column(nullable = false, precision = 19, scale = 2)
+    private BigDecimal balance; // saldo após a última transação do dia
+
+    private LocalDateTime createdAt;
+}
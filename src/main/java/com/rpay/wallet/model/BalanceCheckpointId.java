@@ -0,0 +1,21 @@
+package com.rpay.wallet.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * Chave primária de BalanceCheckpoint: a carteira e o dia
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BalanceCheckpointId implements Serializable {
+
+    private String userId;
+
+    private LocalDate checkpointDate;
+}
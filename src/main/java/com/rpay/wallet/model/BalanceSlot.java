@@ -0,0 +1,63 @@
+package com.rpay.wallet.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.jpa.domain.support.AuditingEntityListener;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Parcela do saldo de uma carteira sharded. Créditos são distribuídos entre os slots para que
+ * depósitos concorrentes não disputem a linha da carteira; débitos varrem os slots para a carteira.
+ */
+@Data
+@Entity
+@NoArgsConstructor
+@Table(name = "wallet_balance_slots", indexes = {
+        @Index(name = "uk_wallet_balance_slots_user_slot", columnList = "userId, slot", unique = true)
+})
+@EntityListeners(AuditingEntityListener.class)
+public class BalanceSlot {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @NotNull
+    private String userId;
+
+    @NotNull
+    private Integer slot;
+
+    @NotNull
+    @Column(precision = 19, scale = 2)
+    private BigDecimal balance;
+
+    /**
+     * Seq do último crédito neste slot; os créditos em slot numeram o ledger por slot (veja Transaction.seq)
+     */
+    @Column(name = "last_seq")
+    private long lastSeq;
+
+    @LastModifiedDate
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    public BalanceSlot(String userId, int slot, long lastSeq) {
+        this.userId = userId;
+        this.slot = slot;
+        this.balance = BigDecimal.ZERO;
+        this.lastSeq = lastSeq;
+    }
+}
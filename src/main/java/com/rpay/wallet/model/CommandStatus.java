@@ -0,0 +1,7 @@
+package com.rpay.wallet.model;
+
+public enum CommandStatus {
+    PENDING,
+    COMPLETED,
+    FAILED
+}
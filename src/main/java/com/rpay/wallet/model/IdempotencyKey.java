@@ -8,34 +8,58 @@ import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.UUID;
 
 @Data
 @Entity
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-@Table(name = "idempotency_key", indexes = {
-        @Index(name = "idx_user_operation", columnList = "userId, operation")
-})
+@Table(name = "idempotency_key")
+@IdClass(IdempotencyKeyId.class)
 @EntityListeners(AuditingEntityListener.class)
 public class IdempotencyKey {
     @Id
-    @Column(name = "`key`", length = 100)
-    private String key;
+    private UUID keyHash; // MD5 de (operação, usuário, chave), guardado em 16 bytes; veja hash()
 
-    @Column(nullable = false)
-    private String userId;
+    @Id
+    @Column(nullable = false, updatable = false)
+    private LocalDate createdOn; // Chave de partição: a tabela é particionada por dia (PostgreSQL)
 
     @Column(nullable = false)
-    private String operation;
+    private IdempotencyOperation operation;
 
-    @Column(nullable = false)
-    private String referenceId; // Pode ser o ID da transação
+    private String referenceId; // ID da transação; null enquanto a operação que reservou a chave não termina
+
+    private Integer responseStatus;
+
+    private byte[] responseBody; // Corpo JSON da resposta, devolvido sem alteração nos replays
 
     @CreatedDate
     @Column(nullable = false, updatable = false)
     private LocalDateTime createdAt;
-}
-
 
+    /**
+     * Hash que identifica a chave de um usuário em uma operação: MD5 de
+     * "{operação}:{bytes do usuário}:{usuário}{chave}" em UTF-8. O tamanho do usuário evita que pares
+     * (usuário, chave) diferentes produzam o mesmo texto. O changeset 1760745600000-15 calcula o mesmo
+     * hash em SQL para os registros existentes.
+     */
+    public static UUID hash(String key, String userId, String operation) {
+        byte[] user = userId.getBytes(StandardCharsets.UTF_8);
+        String input = operation + ":" + user.length + ":" + userId + key;
+        try {
+            ByteBuffer digest = ByteBuffer.wrap(MessageDigest.getInstance("MD5")
+                    .digest(input.getBytes(StandardCharsets.UTF_8)));
+            return new UUID(digest.getLong(), digest.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.rpay.wallet.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.UUID;
+
+/**
+ * Chave primária de IdempotencyKey: o hash de (usuário, operação, chave) e o dia, que é a chave de partição
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IdempotencyKeyId implements Serializable {
+
+    private UUID keyHash;
+
+    private LocalDate createdOn;
+}
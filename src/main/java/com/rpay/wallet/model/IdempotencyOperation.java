@@ -0,0 +1,29 @@
+package com.rpay.wallet.model;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Operações protegidas por chave de idempotência, gravadas em idempotency_key.operation como SMALLINT.
+ * Os códigos são persistidos: nunca reutilize nem renumere um código.
+ */
+@Getter
+public enum IdempotencyOperation {
+    DEPOSIT((short) 1),
+    WITHDRAWAL((short) 2),
+    TRANSFER_OUT((short) 3);
+
+    private final short code;
+
+    IdempotencyOperation(short code) {
+        this.code = code;
+    }
+
+    public static IdempotencyOperation fromCode(short code) {
+        return Arrays.stream(values())
+                .filter(operation -> operation.code == code)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown idempotency operation code: " + code));
+    }
+}
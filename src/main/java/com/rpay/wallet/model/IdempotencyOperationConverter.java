@@ -0,0 +1,18 @@
+package com.rpay.wallet.model;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+@Converter(autoApply = true)
+public class IdempotencyOperationConverter implements AttributeConverter<IdempotencyOperation, Short> {
+
+    @Override
+    public Short convertToDatabaseColumn(IdempotencyOperation operation) {
+        return operation != null ? operation.getCode() : null;
+    }
+
+    @Override
+    public IdempotencyOperation convertToEntityAttribute(Short code) {
+        return code != null ? IdempotencyOperation.fromCode(code) : null;
+    }
+}
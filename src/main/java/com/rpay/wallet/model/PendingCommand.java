@@ -0,0 +1,83 @@
+package com.rpay.wallet.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.jpa.domain.support.AuditingEntityListener;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Operação aceita no modo assíncrono (202) e aplicada depois pelo PendingCommandService
+ */
+@Entity
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "pending_commands")
+@EntityListeners(AuditingEntityListener.class)
+public class PendingCommand {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    private TransactionType type;
+
+    @NotNull
+    private String userId;
+
+    private String toUserId;
+
+    @NotNull
+    @Column(precision = 19, scale = 2)
+    private BigDecimal amount;
+
+    private String description;
+
+    private String idempotencyKey;
+
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    private CommandStatus status;
+
+    private UUID transactionId;
+
+    @Column(precision = 19, scale = 2)
+    private BigDecimal balanceAfter;
+
+    /**
+     * Status HTTP que a operação teria recebido no modo síncrono, quando FAILED
+     */
+    private Integer errorStatus;
+
+    private String error;
+
+    /**
+     * Ciclos do poller em que o comando falhou por erro transitório e continuou PENDING
+     */
+    private int attempts;
+
+    @CreatedDate
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+
+    private LocalDateTime processedAt;
+}
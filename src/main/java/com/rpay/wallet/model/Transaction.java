@@ -28,7 +28,8 @@ import java.util.UUID;
 @NoArgsConstructor
 @AllArgsConstructor
 @Table(name = "transactions", indexes = {
-        @Index(name = "idx_from_user_id", columnList = "fromUserId"),
+        @Index(name = "idx_transactions_from_user_created_at_seq", columnList = "fromUserId, createdAt DESC, seq DESC"),
+        @Index(name = "uk_transactions_from_user_slot_seq", columnList = "fromUserId, slot, seq", unique = true),
         @Index(name = "idx_to_user_id", columnList = "toUserId"),
         @Index(name = "idx_created_at", columnList = "createdAt")
 })
@@ -56,6 +57,20 @@ public class Transaction {
 
     private String description;
 
+    /**
+     * Slot de saldo creditado (carteiras sharded); null para transações na linha da carteira
+     */
+    @Column(updatable = false)
+    private Integer slot;
+
+    /**
+     * Posição da transação no ledger (fromUserId, slot): 1, 2, 3... sem lacunas. Atribuída a partir de
+     * wallets.last_seq com a carteira travada ou, nos créditos em slot, de wallet_balance_slots.last_seq com o
+     * slot travado; cada slot tem a sua própria sequência.
+     */
+    @Column(updatable = false)
+    private Long seq;
+
     @CreatedDate
     @Column(name = "created_at", updatable = false)
     private LocalDateTime createdAt;
@@ -8,6 +8,7 @@ import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.Index;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import jakarta.validation.constraints.NotNull;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -39,6 +40,25 @@ public class Wallet {
     @Column(precision = 19, scale = 2)
     private BigDecimal balance;
 
+    /**
+     * Quantidade de slots de saldo (0 = carteira não sharded)
+     */
+    @Column(name = "slot_count")
+    private int slotCount;
+
+    /**
+     * Versão da linha, usada pelo modo de escrita OPTIMISTIC para detectar alterações concorrentes
+     */
+    @Version
+    private Long version;
+
+    /**
+     * Número de sequência da última transação na linha da carteira; cada transação recebe o próximo, com a carteira
+     * travada. Créditos em slot seguem a sequência do slot (BalanceSlot.lastSeq).
+     */
+    @Column(name = "last_seq")
+    private long lastSeq;
+
     @CreatedDate
     @Column(name = "created_at", updatable = false)
     private LocalDateTime createdAt;
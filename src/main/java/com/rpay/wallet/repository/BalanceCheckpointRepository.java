@@ -0,0 +1,44 @@
+package com.rpay.wallet.repository;
+
+import com.rpay.wallet.model.BalanceCheckpoint;
+import com.rpay.wallet.model.BalanceCheckpointId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Repository
+public interface BalanceCheckpointRepository extends JpaRepository<BalanceCheckpoint, BalanceCheckpointId> {
+
+    /**
+     * Checkpoint mais recente da carteira anterior ao dia
+     */
+    Optional<BalanceCheckpoint> findFirstByUserIdAndCheckpointDateBeforeOrderByCheckpointDateDesc(String userId,
+                                                                                                   LocalDate day);
+
+    /**
+     * Grava o checkpoint do dia das carteiras que movimentaram nele: o balance_after da última transação de
+     * cada uma ou, se ela foi gravada com a carteira sharded (balance_after null), o checkpoint anterior somado
+     * às variações do dia. Checkpoints já gravados (por outro nó, por exemplo) são mantidos.
+     *
+     * @return quantidade de checkpoints gravados
+     */
+    @Modifying
+    @Query(value = "INSERT INTO balance_checkpoints (user_id, checkpoint_date, balance, created_at) "
+            + "SELECT t.from_user_id, CAST(:day AS DATE), COALESCE(t.balance_after, COALESCE("
+            + "(SELECT c.balance FROM balance_checkpoints c WHERE c.user_id = t.from_user_id "
+            + "AND c.checkpoint_date < CAST(:day AS DATE) ORDER BY c.checkpoint_date DESC LIMIT 1), 0) + t.day_change), "
+            + ":createdAt FROM ("
+            + "SELECT from_user_id, balance_after, "
+            + "ROW_NUMBER() OVER (PARTITION BY from_user_id ORDER BY created_at DESC, seq DESC) AS rn, "
+            + "SUM(CASE WHEN type IN ('WITHDRAWAL', 'TRANSFER_OUT') THEN -amount ELSE amount END) "
+            + "OVER (PARTITION BY from_user_id) AS day_change "
+            + "FROM transactions WHERE created_at >= :dayStart AND created_at < :dayEnd) t "
+            + "WHERE t.rn = 1 "
+            + "ON CONFLICT DO NOTHING", nativeQuery = true)
+    int insertForDay(LocalDate day, LocalDateTime dayStart, LocalDateTime dayEnd, LocalDateTime createdAt);
+}
@@ -0,0 +1,33 @@
+package com.rpay.wallet.repository;
+
+import com.rpay.wallet.model.BalanceSlot;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+@Repository
+public interface BalanceSlotRepository extends JpaRepository<BalanceSlot, Long> {
+
+    @Query("SELECT COALESCE(SUM(s.balance), 0) FROM BalanceSlot s WHERE s.userId = :userId")
+    BigDecimal sumBalanceByUserId(String userId);
+
+    /**
+     * Trava o primeiro slot livre, pulando os que estão travados por outras transações (SKIP LOCKED)
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT s FROM BalanceSlot s WHERE s.userId = :userId ORDER BY s.slot")
+    List<BalanceSlot> findUnlockedSlots(String userId, Limit limit);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM BalanceSlot s WHERE s.userId = :userId ORDER BY s.slot")
+    List<BalanceSlot> findAllByUserIdWithLock(String userId);
+}
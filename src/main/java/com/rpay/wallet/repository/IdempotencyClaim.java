@@ -0,0 +1,16 @@
+package com.rpay.wallet.repository;
+
+/**
+ * Resultado de IdempotencyKeyRepository.claimOrFind: a chave foi reservada por esta transação, ou a
+ * resposta que já estava gravada para ela
+ */
+public interface IdempotencyClaim {
+
+    Boolean getClaimed();
+
+    String getReferenceId();
+
+    Integer getResponseStatus();
+
+    byte[] getResponseBody();
+}
@@ -1,13 +1,139 @@
 package com.rpay.wallet.repository;
 
+import com.rpay.wallet.dto.IdempotentResponse;
 import com.rpay.wallet.model.IdempotencyKey;
+import com.rpay.wallet.model.IdempotencyKeyId;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.Optional;
+import java.util.UUID;
 
+/**
+ * As chaves são buscadas pelo hash de (usuário, operação, chave), veja IdempotencyKey.hash: cada busca é uma
+ * igualdade na chave primária. As consultas recebem liveFrom, o primeiro dia ainda dentro da retenção: o
+ * filtro em created_on restringe a busca às partições vivas e ignora chaves expiradas que ainda não foram
+ * removidas.
+ */
 @Repository
-public interface IdempotencyKeyRepository extends JpaRepository<IdempotencyKey, String> {
-    Optional<IdempotencyKey> findByKeyAndUserIdAndOperation(String key, String userId, String operation);
-}
+public interface IdempotencyKeyRepository extends JpaRepository<IdempotencyKey, IdempotencyKeyId> {
+
+    /**
+     * Consulta principal de claimOrFind e claimNewOrFind, depois da CTE claimed com o INSERT
+     */
+    String CLAIM_OR_FIND = "SELECT TRUE AS claimed, NULL AS \"referenceId\", NULL AS \"responseStatus\", "
+            + "NULL AS \"responseBody\" FROM claimed "
+            + "UNION ALL "
+            + "SELECT FALSE, k.reference_id, k.response_status, k.response_body FROM idempotency_key k "
+            + "WHERE k.key_hash = :keyHash AND k.created_on >= :liveFrom AND NOT EXISTS (SELECT 1 FROM claimed)";
+
+    Optional<IdempotencyKey> findByKeyHashAndCreatedOnGreaterThanEqual(UUID keyHash, LocalDate liveFrom);
+
+    /**
+     * Lê só a resposta gravada, sem carregar a entidade nem a transação
+     */
+    @Query("SELECT new com.rpay.wallet.dto.IdempotentResponse(k.referenceId, k.responseStatus, k.responseBody) "
+            + "FROM IdempotencyKey k WHERE k.keyHash = :keyHash AND k.createdOn >= :liveFrom")
+    Optional<IdempotentResponse> findResponse(UUID keyHash, LocalDate liveFrom);
+
+    /**
+     * Reserva a chave com um único INSERT na partição do dia. Se outra transação ainda não commitada reservou
+     * a mesma chave, o INSERT espera por ela: só uma das requisições concorrentes executa a operação. Chaves
+     * de dias anteriores ainda vivos não são cobertas pela chave primária da partição e são verificadas pelo
+     * NOT EXISTS.
+     *
+     * @return 1 se a chave foi reservada, 0 se ela já existia
+     */
+    @Modifying
+    @Query(value = "INSERT INTO idempotency_key (key_hash, operation, created_at, created_on) "
+            + "SELECT :keyHash, :operation, :createdAt, CAST(:createdAt AS DATE) "
+            + "WHERE NOT EXISTS (SELECT 1 FROM idempotency_key k WHERE k.key_hash = :keyHash "
+            + "AND k.created_on >= :liveFrom AND k.created_on < CAST(:createdAt AS DATE)) "
+            + "ON CONFLICT DO NOTHING", nativeQuery = true)
+    int claim(UUID keyHash, short operation, LocalDateTime createdAt, LocalDate liveFrom);
+
+    /**
+     * Reserva uma chave que com certeza não existe nos dias anteriores (veja IdempotencyBloomFilter): só a
+     * chave primária da partição do dia é verificada
+     *
+     * @return 1 se a chave foi reservada, 0 se ela já existia
+     */
+    @Modifying
+    @Query(value = "INSERT INTO idempotency_key (key_hash, operation, created_at, created_on) "
+            + "VALUES (:keyHash, :operation, :createdAt, CAST(:createdAt AS DATE)) ON CONFLICT DO NOTHING",
+            nativeQuery = true)
+    int claimNew(UUID keyHash, short operation, LocalDateTime createdAt);
+
+    /**
+     * Reserva a chave ou lê a resposta já gravada em um único comando (PostgreSQL): o INSERT do claim vira
+     * uma CTE e, se não inseriu nada, o SELECT devolve o registro existente. Uma reserva concorrente que
+     * commitou depois do início do comando não aparece no SELECT (ele usa o snapshot do comando) e o
+     * resultado vem vazio; quem chama lê a resposta de novo, com um novo comando.
+     *
+     * @return Uma linha com claimed = true se a chave foi reservada, claimed = false com a resposta gravada
+     * se ela já existia, ou nenhuma linha
+     */
+    @Transactional
+    @Query(value = "WITH claimed AS (INSERT INTO idempotency_key (key_hash, operation, created_at, created_on) "
+            + "SELECT :keyHash, :operation, :createdAt, CAST(:createdAt AS DATE) "
+            + "WHERE NOT EXISTS (SELECT 1 FROM idempotency_key k WHERE k.key_hash = :keyHash "
+            + "AND k.created_on >= :liveFrom AND k.created_on < CAST(:createdAt AS DATE)) "
+            + "ON CONFLICT DO NOTHING RETURNING key_hash) "
+            + CLAIM_OR_FIND, nativeQuery = true)
+    Optional<IdempotencyClaim> claimOrFind(UUID keyHash, short operation, LocalDateTime createdAt, LocalDate liveFrom);
 
+    /**
+     * Como claimOrFind, para uma chave que com certeza não existe nos dias anteriores: o INSERT só verifica a
+     * chave primária da partição do dia
+     */
+    @Transactional
+    @Query(value = "WITH claimed AS (INSERT INTO idempotency_key (key_hash, operation, created_at, created_on) "
+            + "VALUES (:keyHash, :operation, :createdAt, CAST(:createdAt AS DATE)) "
+            + "ON CONFLICT DO NOTHING RETURNING key_hash) "
+            + CLAIM_OR_FIND, nativeQuery = true)
+    Optional<IdempotencyClaim> claimNewOrFind(UUID keyHash, short operation, LocalDateTime createdAt, LocalDate liveFrom);
+
+    /**
+     * Serializa as reservas da mesma chave até o fim da transação (PostgreSQL). Com a tabela particionada,
+     * duas reservas concorrentes em dias diferentes caem em partições diferentes e a chave primária não
+     * as detecta; com o lock, a segunda só verifica os dias anteriores depois do commit da primeira. Só é
+     * tomado perto da meia-noite (veja IdempotencyService.lockKey).
+     *
+     * @param lockId Metade do hash da chave
+     */
+    @Query(value = "SELECT COUNT(*) FROM (SELECT pg_advisory_xact_lock(:lockId)) l", nativeQuery = true)
+    long lockKey(long lockId);
+
+    @Modifying
+    @Query("UPDATE IdempotencyKey k SET k.referenceId = :referenceId, k.responseStatus = :responseStatus, "
+            + "k.responseBody = :responseBody WHERE k.keyHash = :keyHash AND k.createdOn = :createdOn")
+    int complete(UUID keyHash, LocalDate createdOn, String referenceId, int responseStatus, byte[] responseBody);
+
+    /**
+     * Grava a resposta de uma operação que falhou (e cuja reserva foi desfeita pelo rollback)
+     */
+    @Modifying
+    @Query(value = "INSERT INTO idempotency_key (key_hash, operation, response_status, response_body, created_at, created_on) "
+            + "SELECT :keyHash, :operation, :responseStatus, :responseBody, :createdAt, CAST(:createdAt AS DATE) "
+            + "WHERE NOT EXISTS (SELECT 1 FROM idempotency_key k WHERE k.key_hash = :keyHash "
+            + "AND k.created_on >= :liveFrom AND k.created_on < CAST(:createdAt AS DATE)) "
+            + "ON CONFLICT DO NOTHING", nativeQuery = true)
+    int insertResponse(UUID keyHash, short operation, int responseStatus, byte[] responseBody,
+                       LocalDateTime createdAt, LocalDate liveFrom);
+
+    @Modifying
+    @Query("DELETE FROM IdempotencyKey k WHERE k.keyHash = :keyHash AND k.createdOn = :createdOn")
+    int release(UUID keyHash, LocalDate createdOn);
+
+    /**
+     * Remove as chaves expiradas linha a linha; usado só quando a tabela não é particionada
+     */
+    @Modifying
+    @Query("DELETE FROM IdempotencyKey k WHERE k.createdOn < :liveFrom")
+    int deleteExpired(LocalDate liveFrom);
+}
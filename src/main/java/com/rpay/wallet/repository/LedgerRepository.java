@@ -0,0 +1,181 @@
+package com.rpay.wallet.repository;
+
+import com.rpay.wallet.model.Transaction;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Escritas no ledger feitas em um único statement SQL (PostgreSQL), sem hidratar a entidade Wallet.
+ * O lock da linha da carteira fica retido apenas pelo tempo de um statement. Em carteiras sharded o
+ * balance_after fica null, como em TransactionService, e débitos só consideram o saldo da própria carteira. Todo UPDATE
+ * incrementa a versão da carteira para que leituras do modo OPTIMISTIC detectem a alteração, e a sequência
+ * do ledger (last_seq), que vira o seq da transação inserida.
+ */
+@Repository
+public class LedgerRepository {
+
+    private static final String DEPOSIT_SQL = """
+            WITH credited AS (
+                UPDATE wallets
+                   SET balance = balance + :amount,
+                       version = version + 1,
+                       last_seq = last_seq + 1,
+                       updated_at = :createdAt
+                 WHERE user_id = :userId
+             RETURNING CASE WHEN slot_count > 0 THEN NULL ELSE balance END AS balance,
+                       last_seq
+            )
+            INSERT INTO transactions (id, from_user_id, to_user_id, type, amount, balance_after, description, seq, created_at)
+            SELECT :id, :userId, :toUserId, :type, :amount, credited.balance, :description, credited.last_seq, :createdAt
+              FROM credited
+            RETURNING balance_after, seq
+            """;
+
+    private static final String WITHDRAW_SQL = """
+            WITH debited AS (
+                UPDATE wallets
+                   SET balance = balance - :amount,
+                       version = version + 1,
+                       last_seq = last_seq + 1,
+                       updated_at = :createdAt
+                 WHERE user_id = :userId
+                   AND balance >= :amount
+             RETURNING CASE WHEN slot_count > 0 THEN NULL ELSE balance END AS balance,
+                       last_seq
+            )
+            INSERT INTO transactions (id, from_user_id, to_user_id, type, amount, balance_after, description, seq, created_at)
+            SELECT :id, :userId, :toUserId, :type, :amount, debited.balance, :description, debited.last_seq, :createdAt
+              FROM debited
+            RETURNING balance_after, seq
+            """;
+
+    /**
+     * As duas carteiras são travadas na mesma ordem usada por TransactionService.performTransfer
+     * (COLLATE "C" segue a ordem de String.compareTo) para evitar deadlock; o crédito só acontece
+     * se o débito condicionado ao saldo tiver sido aplicado.
+     */
+    private static final String TRANSFER_SQL = """
+            WITH locked AS (
+                SELECT user_id
+                  FROM wallets
+                 WHERE user_id IN (:userId, :toUserId)
+                 ORDER BY user_id COLLATE "C"
+                   FOR UPDATE
+            ),
+            debited AS (
+                UPDATE wallets
+                   SET balance = balance - :amount,
+                       version = version + 1,
+                       last_seq = last_seq + 1,
+                       updated_at = :createdAt
+                 WHERE user_id = :userId
+                   AND balance >= :amount
+                   AND (SELECT count(*) FROM locked) = 2
+             RETURNING CASE WHEN slot_count > 0 THEN NULL ELSE balance END AS balance,
+                       last_seq
+            ),
+            credited AS (
+                UPDATE wallets
+                   SET balance = balance + :amount,
+                       version = version + 1,
+                       last_seq = last_seq + 1,
+                       updated_at = :createdAt
+                 WHERE user_id = :toUserId
+                   AND EXISTS (SELECT 1 FROM debited)
+             RETURNING CASE WHEN slot_count > 0 THEN NULL ELSE balance END AS balance,
+                       last_seq
+            ),
+            ledger AS (
+                INSERT INTO transactions (id, from_user_id, to_user_id, type, amount, balance_after, description, seq, created_at)
+                SELECT :id, :userId, :toUserId, :type, :amount, debited.balance, :description, debited.last_seq, :createdAt
+                  FROM debited, credited
+                 UNION ALL
+                SELECT :inId, :toUserId, :userId, :inType, :amount, credited.balance, :description, credited.last_seq, :createdAt
+                  FROM debited, credited
+                RETURNING type, balance_after, seq
+            )
+            SELECT type, balance_after, seq
+              FROM ledger
+            """;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public LedgerRepository(NamedParameterJdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Credita a carteira e insere a transação de depósito em um único round trip
+     *
+     * @param transaction Transação com id e createdAt já atribuídos
+     * @return A transação com balanceAfter preenchido, ou vazio se a carteira não existir
+     */
+    public Optional<Transaction> insertDeposit(Transaction transaction) {
+        return execute(DEPOSIT_SQL, transaction);
+    }
+
+    /**
+     * Debita a carteira somente se houver saldo suficiente e insere a transação de saque em um único round trip
+     *
+     * @param transaction Transação com id e createdAt já atribuídos
+     * @return A transação com balanceAfter preenchido, ou vazio se a carteira não existir ou não tiver saldo
+     */
+    public Optional<Transaction> insertWithdrawal(Transaction transaction) {
+        return execute(WITHDRAW_SQL, transaction);
+    }
+
+    /**
+     * Debita a origem, credita o destino e insere TRANSFER_OUT e TRANSFER_IN em um único round trip
+     *
+     * @param outTransaction Transação TRANSFER_OUT com id e createdAt já atribuídos
+     * @param inTransaction  Transação TRANSFER_IN com id já atribuído
+     * @return A transação TRANSFER_OUT com balanceAfter preenchido, ou vazio se alguma carteira não
+     * existir ou a origem não tiver saldo
+     */
+    public Optional<Transaction> insertTransfer(Transaction outTransaction, Transaction inTransaction) {
+        MapSqlParameterSource parameters = parameters(outTransaction)
+                .addValue("inId", inTransaction.getId(), Types.OTHER)
+                .addValue("inType", inTransaction.getType().name(), Types.VARCHAR);
+
+        Map<String, Transaction> transactions = Map.of(
+                outTransaction.getType().name(), outTransaction,
+                inTransaction.getType().name(), inTransaction);
+        List<Transaction> inserted = jdbcTemplate.query(TRANSFER_SQL, parameters, (rs, rowNum) -> {
+            Transaction transaction = transactions.get(rs.getString("type"));
+            transaction.setBalanceAfter(rs.getBigDecimal("balance_after"));
+            transaction.setSeq(rs.getLong("seq"));
+            return transaction;
+        });
+
+        if (inserted.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(outTransaction);
+    }
+
+    private Optional<Transaction> execute(String sql, Transaction transaction) {
+        List<Transaction> inserted = jdbcTemplate.query(sql, parameters(transaction), (rs, rowNum) -> {
+            transaction.setBalanceAfter(rs.getBigDecimal("balance_after"));
+            transaction.setSeq(rs.getLong("seq"));
+            return transaction;
+        });
+        return inserted.stream().findFirst();
+    }
+
+    private MapSqlParameterSource parameters(Transaction transaction) {
+        return new MapSqlParameterSource()
+                .addValue("id", transaction.getId(), Types.OTHER)
+                .addValue("userId", transaction.getFromUserId(), Types.VARCHAR)
+                .addValue("toUserId", transaction.getToUserId(), Types.VARCHAR)
+                .addValue("type", transaction.getType().name(), Types.VARCHAR)
+                .addValue("amount", transaction.getAmount(), Types.NUMERIC)
+                .addValue("description", transaction.getDescription(), Types.VARCHAR)
+                .addValue("createdAt", transaction.getCreatedAt(), Types.TIMESTAMP);
+    }
+}
@@ -0,0 +1,38 @@
+package com.rpay.wallet.repository;
+
+import com.rpay.wallet.model.PendingCommand;
+import com.rpay.wallet.model.TransactionType;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface PendingCommandRepository extends JpaRepository<PendingCommand, UUID> {
+
+    /**
+     * Trava os comandos pendentes mais antigos, em ordem de chegada, pulando os que outra transação já pegou
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT c FROM PendingCommand c WHERE c.status = com.rpay.wallet.model.CommandStatus.PENDING "
+            + "ORDER BY c.createdAt")
+    List<PendingCommand> findPendingWithLock(Limit limit);
+
+    /**
+     * Comando já aceito com a mesma chave de idempotência (uk_pending_commands_idempotency). Lido no pool de
+     * escrita, sem readOnly: uma réplica atrasada ainda não teria o comando que acabou de ser gravado.
+     */
+    @Transactional
+    Optional<PendingCommand> findByIdempotencyKeyAndUserIdAndType(String idempotencyKey, String userId,
+                                                                  TransactionType type);
+}
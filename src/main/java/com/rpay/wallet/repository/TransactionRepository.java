@@ -1,22 +1,79 @@
 package com.rpay.wallet.repository;
 
+import com.rpay.wallet.dto.BalanceChange;
 import com.rpay.wallet.model.Transaction;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
 
 @Repository
 public interface TransactionRepository extends JpaRepository<Transaction, UUID> {
 
+    /**
+     * Variação do saldo causada pela transação t: negativa para saques e transferências enviadas
+     */
+    String SIGNED_AMOUNT = "CASE WHEN t.type IN (com.rpay.wallet.model.TransactionType.WITHDRAWAL, "
+            + "com.rpay.wallet.model.TransactionType.TRANSFER_OUT) THEN -t.amount ELSE t.amount END";
+
     List<Transaction> findByFromUserIdOrderByCreatedAtDesc(String userId);
 
     @Query("SELECT t FROM Transaction t WHERE t.fromUserId = :userId AND t.createdAt <= :timestamp ORDER BY t.createdAt DESC")
     List<Transaction> findByFromUserIdAndCreatedAtBeforeOrderByCreatedAtDesc(String userId, LocalDateTime timestamp);
 
-    @Query("SELECT t FROM Transaction t WHERE t.fromUserId = :userId AND t.createdAt <= :timestamp ORDER BY t.createdAt DESC LIMIT 1")
-    Optional<Transaction> findLastTransactionBeforeTimestamp(String userId, LocalDateTime timestamp);
-}
\ No newline at end of file
+    /**
+     * Saldo após cada transação da carteira depois de from e até to, em ordem cronológica, com a variação que
+     * ela causou. Uma única leitura do índice idx_transactions_from_user_created_at_seq, consumida aos poucos
+     * (exige transação aberta).
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT new com.rpay.wallet.dto.BalanceChange(t.createdAt, t.balanceAfter, " + SIGNED_AMOUNT + ") "
+            + "FROM Transaction t "
+            + "WHERE t.fromUserId = :userId AND t.createdAt > :from AND t.createdAt <= :to ORDER BY t.createdAt, t.seq")
+    Stream<BalanceChange> streamBalancesBetween(String userId, LocalDateTime from, LocalDateTime to);
+
+    /**
+     * Soma das variações de saldo das transações da carteira entre from e to (inclusive)
+     */
+    @Query("SELECT COALESCE(SUM(" + SIGNED_AMOUNT + "), 0) FROM Transaction t "
+            + "WHERE t.fromUserId = :userId AND t.createdAt >= :from AND t.createdAt <= :to")
+    BigDecimal sumChangesBetween(String userId, LocalDateTime from, LocalDateTime to);
+
+    /**
+     * Transações na linha da carteira depois de afterSeq, em ordem de sequência: uma busca exata no índice
+     * uk_transactions_from_user_slot_seq, estável como cursor de paginação
+     */
+    List<Transaction> findByFromUserIdAndSlotIsNullAndSeqGreaterThanOrderBySeq(String userId, long afterSeq, Limit limit);
+
+    /**
+     * Indica se a carteira tem transações entre from e to (inclusive)
+     */
+    boolean existsByFromUserIdAndCreatedAtBetween(String userId, LocalDateTime from, LocalDateTime to);
+
+    /**
+     * Indica se a carteira tem créditos em slot (uma leitura do índice uk_transactions_from_user_slot_seq)
+     */
+    boolean existsByFromUserIdAndSlotIsNotNull(String userId);
+
+    /**
+     * Créditos em um slot da carteira depois de afterSeq, na sequência do slot
+     */
+    List<Transaction> findByFromUserIdAndSlotAndSeqGreaterThanOrderBySeq(String userId, int slot, long afterSeq,
+                                                                         Limit limit);
+
+    /**
+     * Último seq gravado na sequência de um slot, ou 0
+     */
+    @Query("SELECT COALESCE(MAX(t.seq), 0) FROM Transaction t WHERE t.fromUserId = :userId AND t.slot = :slot")
+    long findLastSeqBySlot(String userId, int slot);
+}
@@ -1,11 +1,17 @@
 package com.rpay.wallet.repository;
 
+import com.rpay.wallet.dto.HistoricalBalance;
 import com.rpay.wallet.model.Wallet;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -13,7 +19,59 @@ public interface WalletRepository extends JpaRepository<Wallet, Long> {
 
     Optional<Wallet> findByUserId(String userId);
 
+    /**
+     * Trava as carteiras em um único statement, na ordem de String.compareTo (COLLATE "C"), a mesma usada por
+     * TransactionService.performTransfer e pelo CTE de transferência do LedgerRepository (PostgreSQL). Com a
+     * collation padrão do banco a ordem seria outra, e um lote e uma transferência avulsa entre as mesmas duas
+     * carteiras poderiam travá-las em ordens opostas.
+     */
+    @Query(value = "SELECT * FROM wallets WHERE user_id IN (:userIds) ORDER BY user_id COLLATE \"C\" FOR UPDATE",
+            nativeQuery = true)
+    List<Wallet> findAllByUserIdInWithLock(Collection<String> userIds);
+
+    /**
+     * Igual a findAllByUserIdInWithLock, mas falha imediatamente (FOR UPDATE NOWAIT) se alguma das linhas já
+     * estiver travada
+     */
+    @Query(value = "SELECT * FROM wallets WHERE user_id IN (:userIds) ORDER BY user_id COLLATE \"C\" FOR UPDATE NOWAIT",
+            nativeQuery = true)
+    List<Wallet> findAllByUserIdInWithLockNoWait(Collection<String> userIds);
+
+    @Query("SELECT w.slotCount FROM Wallet w WHERE w.userId = :userId")
+    Optional<Integer> findSlotCountByUserId(String userId);
+
     @Lock(LockModeType.PESSIMISTIC_WRITE)
     @Query("SELECT w FROM Wallet w WHERE w.userId = :userId")
     Optional<Wallet> findByUserIdWithLock(String userId);
+
+    /**
+     * Igual a findByUserIdWithLock, mas falha imediatamente (FOR UPDATE NOWAIT) se a linha já estiver travada
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "0"))
+    @Query("SELECT w FROM Wallet w WHERE w.userId = :userId")
+    Optional<Wallet> findByUserIdWithLockNoWait(String userId);
+
+    /**
+     * Define o lock_timeout até o fim da transação corrente (PostgreSQL)
+     */
+    @Query(value = "SELECT set_config('lock_timeout', :timeout, true)", nativeQuery = true)
+    String setTransactionLockTimeout(String timeout);
+
+    /**
+     * Saldo histórico em uma única consulta: a carteira, o balance_after da última transação até o timestamp e
+     * o instante dessa transação (duas leituras do índice idx_transactions_from_user_created_at_seq). Vazio se a
+     * carteira não existe.
+     */
+    @Query("SELECT new com.rpay.wallet.dto.HistoricalBalance(w.createdAt, "
+            + "(SELECT t.balanceAfter FROM Transaction t WHERE t.fromUserId = w.userId AND t.createdAt <= :timestamp "
+            + "ORDER BY t.createdAt DESC, t.seq DESC LIMIT 1), "
+            + "(SELECT MAX(t.createdAt) FROM Transaction t WHERE t.fromUserId = w.userId AND t.createdAt <= :timestamp)) "
+            + "FROM Wallet w WHERE w.userId = :userId")
+    Optional<HistoricalBalance> findHistoricalBalance(String userId, LocalDateTime timestamp);
+
+    boolean existsByUserId(String userId);
+
+    @Query("SELECT w FROM Wallet w WHERE w.slotCount > 0")
+    List<Wallet> findShardedWallets();
 }
@@ -0,0 +1,88 @@
+package com.rpay.wallet.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.config.WalletProperties.BalanceCache.Mode;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+
+/**
+ * Cache em memória do saldo atual das carteiras não sharded. O TransactionService grava o saldo de cada
+ * transação após o commit e a leitura do banco grava o saldo lido; cada valor leva o seq da última transação
+ * da carteira (wallets.last_seq), e um valor só substitui outro de seq maior ou igual, então um commit ou uma
+ * leitura atrasados nunca sobrescrevem um saldo mais novo. Escritas feitas por outros nós não passam por
+ * aqui: no modo BOUNDED o valor expira após wallet.balance-cache.max-staleness. As métricas ficam em
+ * cache.gets/cache.puts/cache.evictions com a tag cache=balance.
+ */
+@Component
+public class BalanceCache {
+
+    private final Cache<String, VersionedBalance> cache;
+    private final boolean enabled;
+
+    public BalanceCache(WalletProperties walletProperties, MeterRegistry meterRegistry) {
+        WalletProperties.BalanceCache settings = walletProperties.getBalanceCache();
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .maximumSize(settings.getMaxSize())
+                .recordStats();
+        if (settings.getMode() == Mode.BOUNDED) {
+            builder.expireAfterWrite(settings.getMaxStaleness());
+        }
+        this.cache = builder.build();
+        this.enabled = settings.getMode() != Mode.OFF;
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "balance");
+    }
+
+    /**
+     * Saldo em cache da carteira
+     */
+    public Optional<BigDecimal> get(String userId) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(cache.getIfPresent(userId)).map(VersionedBalance::balance);
+    }
+
+    /**
+     * Guarda o saldo da carteira após a transação seq quando a transação corrente for commitada (ou na hora,
+     * fora de transação): um rollback, ou uma leitura que vê escritas ainda não commitadas, nunca chega ao cache
+     */
+    public void putAfterCommit(String userId, long seq, BigDecimal balance) {
+        if (!enabled) {
+            return;
+        }
+        VersionedBalance versioned = new VersionedBalance(seq, balance);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            put(userId, versioned);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                put(userId, versioned);
+            }
+        });
+    }
+
+    /**
+     * Remove a carteira do cache (por exemplo, quando passa a ser sharded)
+     */
+    public void evict(String userId) {
+        cache.invalidate(userId);
+    }
+
+    private void put(String userId, VersionedBalance versioned) {
+        cache.asMap().merge(userId, versioned,
+                (current, candidate) -> candidate.seq() >= current.seq() ? candidate : current);
+    }
+
+    private record VersionedBalance(long seq, BigDecimal balance) {
+    }
+}
@@ -0,0 +1,93 @@
+package com.rpay.wallet.service;
+
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.repository.BalanceCheckpointRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Checkpoints diários de saldo. Para cada dia encerrado, grava o saldo de fim de dia das carteiras que
+ * movimentaram nele. O saldo histórico é lido primeiro do ledger (o balance_after da última transação até o
+ * timestamp) e só usa o checkpoint mais recente anterior ao dia quando essa transação não existe mais (veja
+ * TransactionService.getHistoricalBalance). O último dia processado fica em balance_checkpoint_watermark:
+ * transações até esse dia estão cobertas pelos checkpoints e podem ser arquivadas, mas um dia arquivado passa a
+ * ter só o saldo de fim de dia.
+ */
+@Service
+public class BalanceCheckpointService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BalanceCheckpointService.class);
+
+    private final BalanceCheckpointRepository balanceCheckpointRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final WalletProperties walletProperties;
+
+    public BalanceCheckpointService(BalanceCheckpointRepository balanceCheckpointRepository,
+                                    JdbcTemplate jdbcTemplate,
+                                    TransactionTemplate transactionTemplate,
+                                    WalletProperties walletProperties) {
+        this.balanceCheckpointRepository = balanceCheckpointRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.walletProperties = walletProperties;
+    }
+
+    /**
+     * Grava os checkpoints dos dias encerrados desde o último processado. Na primeira execução começa pelo dia
+     * da transação mais antiga. Cada dia é gravado e marcado como processado na mesma transação.
+     */
+    @Scheduled(fixedDelayString = "${wallet.balance-checkpoint.interval}")
+    public void writeCheckpoints() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDate lastClosed = now.minus(walletProperties.getBalanceCheckpoint().getDelay()).toLocalDate().minusDays(1);
+
+        LocalDate day = nextDay();
+        while (day != null && !day.isAfter(lastClosed)) {
+            LocalDate current = day;
+            Integer written = transactionTemplate.execute(status -> writeCheckpoints(current, now));
+            if (written != null) {
+                logger.info("Wrote {} balance checkpoints for {}.", written, current);
+            }
+            day = day.plusDays(1);
+        }
+    }
+
+    /**
+     * Grava os checkpoints do dia com o watermark travado, para que nós diferentes não processem o mesmo dia
+     *
+     * @return quantidade de checkpoints gravados, ou null se o dia já tinha sido processado
+     */
+    private Integer writeCheckpoints(LocalDate day, LocalDateTime now) {
+        LocalDate through = jdbcTemplate.queryForObject(
+                "SELECT checkpointed_through FROM balance_checkpoint_watermark WHERE id = 1 FOR UPDATE",
+                LocalDate.class);
+        if (through != null && !through.isBefore(day)) {
+            return null;
+        }
+
+        int written = balanceCheckpointRepository.insertForDay(day, day.atStartOfDay(),
+                day.plusDays(1).atStartOfDay(), now);
+        jdbcTemplate.update("UPDATE balance_checkpoint_watermark SET checkpointed_through = ? WHERE id = 1", day);
+        return written;
+    }
+
+    private LocalDate nextDay() {
+        LocalDate through = jdbcTemplate.queryForObject(
+                "SELECT checkpointed_through FROM balance_checkpoint_watermark WHERE id = 1", LocalDate.class);
+        if (through != null) {
+            return through.plusDays(1);
+        }
+
+        LocalDateTime first = jdbcTemplate.queryForObject("SELECT MIN(created_at) FROM transactions",
+                LocalDateTime.class);
+        return first != null ? first.toLocalDate() : null;
+    }
+}
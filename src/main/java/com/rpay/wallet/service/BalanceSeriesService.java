@@ -0,0 +1,107 @@
+package com.rpay.wallet.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.dto.BalanceChange;
+import com.rpay.wallet.dto.BalancePoint;
+import com.rpay.wallet.exception.UnprocessableEntityException;
+import com.rpay.wallet.repository.TransactionRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Série de saldos de uma carteira em intervalos regulares. O saldo inicial vem do saldo histórico em from e
+ * os demais pontos de uma única leitura ordenada das transações entre from e to, escritos à medida que as
+ * transações são lidas: a memória usada não depende do tamanho do período.
+ */
+@Service
+public class BalanceSeriesService {
+
+    private static final byte[] ARRAY_START = {'['};
+    private static final byte[] SEPARATOR = {','};
+    private static final byte[] ARRAY_END = {']'};
+
+    private final TransactionService transactionService;
+    private final TransactionRepository transactionRepository;
+    private final ObjectMapper objectMapper;
+    private final WalletProperties walletProperties;
+
+    public BalanceSeriesService(TransactionService transactionService,
+                                TransactionRepository transactionRepository,
+                                ObjectMapper objectMapper,
+                                WalletProperties walletProperties) {
+        this.transactionService = transactionService;
+        this.transactionRepository = transactionRepository;
+        this.objectMapper = objectMapper;
+        this.walletProperties = walletProperties;
+    }
+
+    /**
+     * Valida o período e devolve o saldo em from. Chamado antes de a resposta começar a ser escrita, para que
+     * os erros (carteira inexistente, período inválido) ainda possam ser respondidos com o status adequado.
+     */
+    public BigDecimal open(String userId, LocalDateTime from, LocalDateTime to, Duration interval) {
+        if (to.isBefore(from)) {
+            throw new UnprocessableEntityException("The end of the series must not be before its start");
+        }
+        if (interval.isNegative() || interval.isZero()) {
+            throw new UnprocessableEntityException("The series interval must be positive");
+        }
+        int maxPoints = walletProperties.getSeries().getMaxPoints();
+        if (Duration.between(from, to).dividedBy(interval) >= maxPoints) {
+            throw new UnprocessableEntityException("The series must have at most " + maxPoints + " points");
+        }
+        return transactionService.getHistoricalBalance(userId, from);
+    }
+
+    /**
+     * Escreve em output um array JSON com o saldo em from, from + interval, ... até to. O saldo em cada
+     * ponto é o da última transação até ele, ou opening se não houve transação desde from. Transações sem
+     * balance_after (gravadas com a carteira sharded) somam a sua variação ao saldo anterior.
+     */
+    @Transactional(readOnly = true)
+    public void write(String userId, LocalDateTime from, LocalDateTime to, Duration interval, BigDecimal opening,
+                      OutputStream output) throws IOException {
+        ObjectWriter writer = objectMapper.writerFor(BalancePoint.class);
+        BigDecimal balance = opening;
+        LocalDateTime point = from;
+
+        output.write(ARRAY_START);
+        try (Stream<BalanceChange> transactions = transactionRepository.streamBalancesBetween(userId, from, to)) {
+            Iterator<BalanceChange> iterator = transactions.iterator();
+            while (iterator.hasNext()) {
+                BalanceChange transaction = iterator.next();
+                while (point.isBefore(transaction.getTimestamp())) {
+                    write(writer, output, point, balance, point.equals(from));
+                    point = point.plus(interval);
+                }
+                balance = transaction.getBalanceAfter() != null
+                        ? transaction.getBalanceAfter()
+                        : balance.add(transaction.getChange());
+            }
+        }
+        while (!point.isAfter(to)) {
+            write(writer, output, point, balance, point.equals(from));
+            point = point.plus(interval);
+        }
+        output.write(ARRAY_END);
+        output.flush();
+    }
+
+    private void write(ObjectWriter writer, OutputStream output, LocalDateTime point, BigDecimal balance,
+                       boolean first) throws IOException {
+        if (!first) {
+            output.write(SEPARATOR);
+        }
+        output.write(writer.writeValueAsBytes(new BalancePoint(point, balance)));
+    }
+}
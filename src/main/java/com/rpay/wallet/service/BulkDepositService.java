@@ -0,0 +1,136 @@
+package com.rpay.wallet.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.dto.BatchItemResult;
+import com.rpay.wallet.dto.TransactionRequest;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Importação de depósitos em NDJSON (um TransactionRequest por linha). O corpo é lido registro a registro e
+ * aplicado em chunks de wallet.bulk.chunk-size, cada um na sua própria transação, e o resultado de cada
+ * registro é escrito assim que o chunk é commitado: a memória usada não depende do tamanho do arquivo.
+ */
+@Service
+public class BulkDepositService {
+
+    private static final byte[] NEW_LINE = {'\n'};
+
+    private final IdempotencyService idempotencyService;
+    private final TransactionService transactionService;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final WalletProperties walletProperties;
+
+    public BulkDepositService(IdempotencyService idempotencyService,
+                              TransactionService transactionService,
+                              ObjectMapper objectMapper,
+                              Validator validator,
+                              WalletProperties walletProperties) {
+        this.idempotencyService = idempotencyService;
+        this.transactionService = transactionService;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.walletProperties = walletProperties;
+    }
+
+    /**
+     * Lê os depósitos de input e escreve em output um BatchItemResult por registro, na ordem do arquivo.
+     * Com chave de idempotência, cada registro usa "{chave}:{posição}", então reenviar o arquivo após uma
+     * falha só aplica os registros que ainda não foram commitados.
+     */
+    public void deposit(InputStream input, OutputStream output, String idempotencyKey) throws IOException {
+        ObjectWriter writer = objectMapper.writerFor(BatchItemResult.class);
+        int chunkSize = walletProperties.getBulk().getChunkSize();
+
+        List<BatchItemResult> invalid = new ArrayList<>();
+        List<IndexedCommand> chunk = new ArrayList<>(chunkSize);
+        int index = 0;
+
+        try (MappingIterator<TransactionRequest> records =
+                     objectMapper.readerFor(TransactionRequest.class).readValues(input)) {
+            while (records.hasNextValue()) {
+                TransactionRequest request = records.nextValue();
+                String violations = validate(request);
+                if (violations != null) {
+                    invalid.add(BatchItemResult.failure(index, 400, "Validation failed: " + violations));
+                } else {
+                    chunk.add(new IndexedCommand(index, WalletCommand.deposit(request,
+                            idempotencyKey != null ? idempotencyKey + ":" + index : null)));
+                }
+                index++;
+
+                if (chunk.size() + invalid.size() >= chunkSize) {
+                    write(writer, output, apply(chunk, invalid));
+                    chunk.clear();
+                    invalid.clear();
+                }
+            }
+        } catch (JsonProcessingException e) {
+            // Uma linha malformada impede a leitura do restante: aplica o que já foi lido e encerra
+            invalid.add(BatchItemResult.failure(index, 400, "Malformed record: " + e.getOriginalMessage()));
+        }
+
+        write(writer, output, apply(chunk, invalid));
+    }
+
+    /**
+     * Aplica o chunk em uma transação, com os depósitos agrupados por carteira (mantendo a ordem de
+     * cada carteira), e devolve os resultados ordenados pela posição no arquivo
+     */
+    private List<BatchItemResult> apply(List<IndexedCommand> chunk, List<BatchItemResult> invalid) {
+        List<BatchItemResult> results = new ArrayList<>(invalid);
+        if (!chunk.isEmpty()) {
+            List<IndexedCommand> grouped = chunk.stream()
+                    .sorted(Comparator.comparing(indexed -> indexed.command().getUserId()))
+                    .toList();
+            try {
+                List<CommandResult> applied = idempotencyService.executeBatchWithIdempotency(
+                        grouped.stream().map(IndexedCommand::command).toList(), transactionService::applyBatch);
+                for (int i = 0; i < grouped.size(); i++) {
+                    results.add(BatchItemResult.of(grouped.get(i).index(), applied.get(i)));
+                }
+            } catch (RuntimeException e) {
+                grouped.forEach(indexed -> results.add(BatchItemResult.failure(indexed.index(), e)));
+            }
+        }
+        results.sort(Comparator.comparingInt(BatchItemResult::getIndex));
+        return results;
+    }
+
+    private String validate(TransactionRequest request) {
+        Set<ConstraintViolation<TransactionRequest>> violations = validator.validate(request);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return violations.stream()
+                .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                .sorted()
+                .collect(Collectors.joining(", "));
+    }
+
+    private void write(ObjectWriter writer, OutputStream output, List<BatchItemResult> results) throws IOException {
+        for (BatchItemResult result : results) {
+            output.write(writer.writeValueAsBytes(result));
+            output.write(NEW_LINE);
+        }
+        output.flush();
+    }
+
+    private record IndexedCommand(int index, WalletCommand command) {
+    }
+}
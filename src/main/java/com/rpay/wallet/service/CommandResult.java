@@ -0,0 +1,30 @@
+package com.rpay.wallet.service;
+
+import com.rpay.wallet.model.Transaction;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Resultado de um comando aplicado em lote: a transação gerada ou o erro que rejeitou o comando
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class CommandResult {
+
+    private final Transaction transaction;
+
+    private final RuntimeException error;
+
+    public static CommandResult success(Transaction transaction) {
+        return new CommandResult(transaction, null);
+    }
+
+    public static CommandResult failure(RuntimeException error) {
+        return new CommandResult(null, error);
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
@@ -0,0 +1,50 @@
+package com.rpay.wallet.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rpay.wallet.config.WalletProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.function.Supplier;
+
+/**
+ * Cache em memória dos saldos históricos. O saldo em um timestamp anterior a now - safety-window não muda
+ * mais: toda transação até ele já foi commitada, então o valor fica no cache sem invalidação e só sai por
+ * tamanho. Timestamps dentro da janela sempre vão ao banco. As métricas ficam em
+ * cache.gets/cache.puts/cache.evictions com a tag cache=historical-balance.
+ */
+@Component
+public class HistoricalBalanceCache {
+
+    private final Cache<Key, BigDecimal> cache;
+    private final Duration safetyWindow;
+
+    public HistoricalBalanceCache(WalletProperties walletProperties, MeterRegistry meterRegistry) {
+        WalletProperties.HistoricalCache historicalCache = walletProperties.getHistoricalCache();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(historicalCache.getMaxSize())
+                .recordStats()
+                .build();
+        this.safetyWindow = historicalCache.getSafetyWindow();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "historical-balance");
+    }
+
+    /**
+     * Devolve o saldo do cache ou o carrega com loader. Erros do loader (carteira inexistente no timestamp,
+     * por exemplo) não são guardados.
+     */
+    public BigDecimal get(String userId, LocalDateTime timestamp, Supplier<BigDecimal> loader) {
+        if (!timestamp.isBefore(LocalDateTime.now().minus(safetyWindow))) {
+            return loader.get();
+        }
+        return cache.get(new Key(userId, timestamp), key -> loader.get());
+    }
+
+    private record Key(String userId, LocalDateTime timestamp) {
+    }
+}
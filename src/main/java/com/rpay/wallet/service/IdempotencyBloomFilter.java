@@ -0,0 +1,188 @@
+package com.rpay.wallet.service;
+
+import com.rpay.wallet.config.WalletProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Filtros de Bloom das chaves de idempotência, um por dia encerrado ainda dentro da retenção. Um dia encerrado
+ * não recebe mais reservas, então o filtro montado a partir da sua partição vale para todos os nós: se nenhum
+ * filtro contém a chave, a reserva não precisa verificar os dias anteriores e só depende da chave primária da
+ * partição do dia. Os filtros são montados na subida da aplicação e a cada dia que se encerra, e os de dias
+ * expirados são descartados.
+ * <p>
+ * As métricas ficam em idempotency.bloom.checks (result=absent/maybe), idempotency.bloom.false.positive.rate
+ * (entre as chaves novas, a fração que o filtro não descartou) e idempotency.bloom.memory (bytes).
+ */
+@Component
+public class IdempotencyBloomFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyBloomFilter.class);
+
+    public enum Result {
+        /**
+         * A chave com certeza não existe em nenhum dia anterior
+         */
+        ABSENT,
+        /**
+         * A chave pode existir em um dia anterior
+         */
+        MAYBE,
+        /**
+         * Algum dia anterior ainda não tem filtro
+         */
+        UNKNOWN
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final IdempotencyPartitionService idempotencyPartitionService;
+    private final WalletProperties.Idempotency.Bloom properties;
+
+    private final Map<LocalDate, BloomFilter> filters = new ConcurrentHashMap<>();
+
+    private final Counter absent;
+    private final Counter maybe;
+    private final Counter falsePositives;
+
+    public IdempotencyBloomFilter(JdbcTemplate jdbcTemplate,
+                                  IdempotencyPartitionService idempotencyPartitionService,
+                                  WalletProperties walletProperties,
+                                  MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.idempotencyPartitionService = idempotencyPartitionService;
+        this.properties = walletProperties.getIdempotency().getBloom();
+        this.absent = Counter.builder("idempotency.bloom.checks").tag("result", "absent").register(meterRegistry);
+        this.maybe = Counter.builder("idempotency.bloom.checks").tag("result", "maybe").register(meterRegistry);
+        this.falsePositives = Counter.builder("idempotency.bloom.false.positives").register(meterRegistry);
+        Gauge.builder("idempotency.bloom.false.positive.rate", this, IdempotencyBloomFilter::falsePositiveRate)
+                .register(meterRegistry);
+        Gauge.builder("idempotency.bloom.memory", this, IdempotencyBloomFilter::memoryBytes)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Verifica se a chave pode ter sido reservada em algum dia entre o início da retenção e o dia anterior a today
+     */
+    public Result check(UUID keyHash, LocalDate today) {
+        if (!properties.isEnabled()) {
+            return Result.UNKNOWN;
+        }
+
+        boolean found = false;
+        for (LocalDate day = idempotencyPartitionService.liveFrom(); day.isBefore(today); day = day.plusDays(1)) {
+            BloomFilter filter = filters.get(day);
+            if (filter == null) {
+                return Result.UNKNOWN;
+            }
+            found |= filter.mightContain(keyHash);
+        }
+
+        (found ? maybe : absent).increment();
+        return found ? Result.MAYBE : Result.ABSENT;
+    }
+
+    /**
+     * Registra que uma chave indicada como MAYBE era nova
+     */
+    public void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    /**
+     * Monta os filtros dos dias encerrados que ainda não têm filtro e descarta os que saíram da retenção
+     */
+    @Scheduled(fixedDelayString = "${wallet.idempotency.bloom.refresh-interval}")
+    public void refresh() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        LocalDate liveFrom = idempotencyPartitionService.liveFrom();
+        filters.keySet().removeIf(day -> day.isBefore(liveFrom));
+
+        LocalDateTime now = LocalDateTime.now();
+        for (LocalDate day = liveFrom; day.isBefore(now.toLocalDate()); day = day.plusDays(1)) {
+            boolean closed = !now.isBefore(day.plusDays(1).atStartOfDay().plus(properties.getBuildDelay()));
+            if (closed && !filters.containsKey(day)) {
+                filters.put(day, build(day));
+            }
+        }
+    }
+
+    private BloomFilter build(LocalDate day) {
+        Long count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM idempotency_key WHERE created_on = ?", Long.class, day);
+        BloomFilter filter = new BloomFilter(count != null ? count : 0, properties.getFalsePositiveRate());
+        jdbcTemplate.query("SELECT key_hash FROM idempotency_key WHERE created_on = ?",
+                (RowCallbackHandler) rs -> filter.put(rs.getObject(1, UUID.class)), day);
+        logger.info("Built idempotency key Bloom filter for {} with {} keys ({} bytes).", day, count, filter.memoryBytes());
+        return filter;
+    }
+
+    private double falsePositiveRate() {
+        double negatives = absent.count() + falsePositives.count();
+        return negatives > 0 ? falsePositives.count() / negatives : 0;
+    }
+
+    private double memoryBytes() {
+        return filters.values().stream().mapToLong(BloomFilter::memoryBytes).sum();
+    }
+
+    /**
+     * Filtro de Bloom de hashes de chave. O hash já é um MD5, então as duas metades são usadas diretamente
+     * como as duas funções de hash da técnica de Kirsch-Mitzenmacher (h1 + i * h2).
+     */
+    static final class BloomFilter {
+
+        private final long[] bits;
+        private final long bitSize;
+        private final int hashFunctions;
+
+        BloomFilter(long expectedInsertions, double falsePositiveRate) {
+            long insertions = Math.max(1, expectedInsertions);
+            long size = (long) Math.ceil(-insertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            this.bits = new long[(int) Math.max(1, (size + 63) / 64)];
+            this.bitSize = bits.length * 64L;
+            this.hashFunctions = (int) Math.max(1, Math.round((double) bitSize / insertions * Math.log(2)));
+        }
+
+        void put(UUID keyHash) {
+            for (int i = 0; i < hashFunctions; i++) {
+                long index = index(keyHash, i);
+                bits[(int) (index >>> 6)] |= 1L << index;
+            }
+        }
+
+        boolean mightContain(UUID keyHash) {
+            for (int i = 0; i < hashFunctions; i++) {
+                long index = index(keyHash, i);
+                if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long memoryBytes() {
+            return bits.length * 8L;
+        }
+
+        private long index(UUID keyHash, int i) {
+            return Math.floorMod(keyHash.getMostSignificantBits() + i * keyHash.getLeastSignificantBits(), bitSize);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.rpay.wallet.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.dto.IdempotentResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Cache em memória, limitado por tamanho e TTL, das respostas já gravadas para uma chave de idempotência,
+ * indexado pelo hash da chave (IdempotencyKey.hash).
+ * Um replay encontrado aqui é respondido sem abrir transação nem pegar conexão do pool. As métricas ficam
+ * em cache.gets/cache.puts/cache.evictions com a tag cache=idempotency.
+ */
+@Component
+public class IdempotencyCache {
+
+    private final Cache<UUID, IdempotentResponse> cache;
+
+    public IdempotencyCache(WalletProperties walletProperties, MeterRegistry meterRegistry) {
+        WalletProperties.Idempotency idempotency = walletProperties.getIdempotency();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(idempotency.getCacheMaxSize())
+                .expireAfterWrite(idempotency.getCacheTtl())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "idempotency");
+    }
+
+    /**
+     * Busca a resposta gravada para a chave
+     */
+    public Optional<IdempotentResponse> get(UUID keyHash) {
+        return Optional.ofNullable(cache.getIfPresent(keyHash));
+    }
+
+    /**
+     * Guarda a resposta da chave quando a transação corrente for commitada (ou na hora, fora de transação),
+     * para que um rollback nunca deixe no cache uma resposta que não existe no banco
+     */
+    public void putAfterCommit(UUID keyHash, IdempotentResponse response) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            cache.put(keyHash, response);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                cache.put(keyHash, response);
+            }
+        });
+    }
+}
@@ -0,0 +1,58 @@
+package com.rpay.wallet.service;
+
+import com.rpay.wallet.model.IdempotencyKey;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Requisições em andamento neste nó, por chave de idempotência. Uma requisição com a mesma chave de uma que
+ * ainda está executando espera a primeira terminar em vez de disputar o lock da carteira com ela; depois
+ * executa normalmente e, em geral, é respondida como replay pelo cache. A reserva da chave no banco continua
+ * sendo a garantia entre nós diferentes.
+ */
+@Component
+public class IdempotencyInFlightRegistry {
+
+    private final Map<UUID, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+    private final Counter coalesced;
+
+    public IdempotencyInFlightRegistry(MeterRegistry meterRegistry) {
+        this.coalesced = Counter.builder("idempotency.inflight.coalesced")
+                .description("Requests that waited for an in-flight request with the same idempotency key")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Executa a operação sem outra requisição da mesma chave em andamento neste nó
+     */
+    public <T> T execute(String idempotencyKey, String userId, String operation, Supplier<T> supplier) {
+        if (idempotencyKey == null) {
+            return supplier.get();
+        }
+
+        UUID keyHash = IdempotencyKey.hash(idempotencyKey, userId, operation);
+        while (true) {
+            CompletableFuture<Void> mine = new CompletableFuture<>();
+            CompletableFuture<Void> running = inFlight.putIfAbsent(keyHash, mine);
+            if (running == null) {
+                try {
+                    return supplier.get();
+                } finally {
+                    inFlight.remove(keyHash, mine);
+                    mine.complete(null);
+                }
+            }
+
+            // Outra requisição com a mesma chave está executando: espera o fim dela e tenta de novo
+            coalesced.increment();
+            running.join();
+        }
+    }
+}
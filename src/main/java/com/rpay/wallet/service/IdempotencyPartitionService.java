@@ -0,0 +1,136 @@
+package com.rpay.wallet.service;
+
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.repository.DatabasePlatform;
+import com.rpay.wallet.repository.IdempotencyKeyRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Retenção das chaves de idempotência. No PostgreSQL idempotency_key é particionada por dia (created_on):
+ * o job cria as partições dos próximos dias e remove inteiras as partições que já saíram da retenção,
+ * com DETACH CONCURRENTLY para não bloquear as reservas em andamento. Em outros bancos a tabela não é
+ * particionada e as chaves expiradas são removidas com DELETE.
+ */
+@Service
+public class IdempotencyPartitionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyPartitionService.class);
+
+    private static final String TABLE = "idempotency_key";
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final Pattern UPPER_BOUND = Pattern.compile("TO \\('(\\d{4}-\\d{2}-\\d{2})'\\)");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DatabasePlatform databasePlatform;
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final WalletProperties walletProperties;
+
+    public IdempotencyPartitionService(JdbcTemplate jdbcTemplate,
+                                       DatabasePlatform databasePlatform,
+                                       IdempotencyKeyRepository idempotencyKeyRepository,
+                                       TransactionTemplate transactionTemplate,
+                                       WalletProperties walletProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.databasePlatform = databasePlatform;
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.walletProperties = walletProperties;
+    }
+
+    /**
+     * Primeiro dia ainda dentro da retenção. Chaves de dias anteriores são tratadas como inexistentes,
+     * mesmo antes de a partição ser removida.
+     */
+    public LocalDate liveFrom() {
+        return LocalDateTime.now().minus(walletProperties.getIdempotency().getRetention()).toLocalDate();
+    }
+
+    /**
+     * A tabela só é particionada no PostgreSQL (changeset 1760745600000-13)
+     */
+    public boolean isPartitioned() {
+        return databasePlatform.isPostgres();
+    }
+
+    /**
+     * Cria as partições dos próximos dias e remove as expiradas. Roda na subida da aplicação e a cada
+     * wallet.idempotency.purge-interval.
+     */
+    @Scheduled(fixedDelayString = "${wallet.idempotency.purge-interval}")
+    public void maintainPartitions() {
+        LocalDate liveFrom = liveFrom();
+        if (!isPartitioned()) {
+            Integer deleted = transactionTemplate.execute(status -> idempotencyKeyRepository.deleteExpired(liveFrom));
+            logger.debug("Deleted {} expired idempotency keys.", deleted);
+            return;
+        }
+
+        createUpcomingPartitions(LocalDate.now());
+        dropExpiredPartitions(liveFrom);
+    }
+
+    private void createUpcomingPartitions(LocalDate today) {
+        for (int i = 0; i <= walletProperties.getIdempotency().getPartitionsAhead(); i++) {
+            LocalDate day = today.plusDays(i);
+            try {
+                jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + TABLE + "_p" + day.format(PARTITION_SUFFIX)
+                        + " PARTITION OF " + TABLE + " FOR VALUES FROM ('" + day + "') TO ('" + day.plusDays(1) + "')");
+            } catch (DataAccessException e) {
+                // Outro nó pode ter criado a mesma partição ao mesmo tempo
+                logger.warn("Could not create idempotency key partition for {}.", day, e);
+            }
+        }
+    }
+
+    private void dropExpiredPartitions(LocalDate liveFrom) {
+        for (Partition partition : findPartitions()) {
+            LocalDate upperBound = partition.upperBound();
+            if (upperBound == null || upperBound.isAfter(liveFrom)) {
+                continue;
+            }
+
+            String name = "\"" + partition.name().replace("\"", "\"\"") + "\"";
+            try {
+                // Um DETACH CONCURRENTLY interrompido deixa a partição pendente, que só aceita FINALIZE
+                jdbcTemplate.execute("ALTER TABLE " + TABLE + " DETACH PARTITION " + name
+                        + (partition.detachPending() ? " FINALIZE" : " CONCURRENTLY"));
+                jdbcTemplate.execute("DROP TABLE " + name);
+                logger.info("Dropped expired idempotency key partition {}.", partition.name());
+            } catch (DataAccessException e) {
+                logger.warn("Could not drop idempotency key partition {}.", partition.name(), e);
+            }
+        }
+    }
+
+    private List<Partition> findPartitions() {
+        return jdbcTemplate.query("SELECT c.relname, pg_get_expr(c.relpartbound, c.oid), i.inhdetachpending "
+                        + "FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid "
+                        + "WHERE i.inhparent = CAST('" + TABLE + "' AS regclass)",
+                (rs, rowNum) -> new Partition(rs.getString(1), rs.getString(2), rs.getBoolean(3)));
+    }
+
+    record Partition(String name, String bound, boolean detachPending) {
+
+        /**
+         * Limite superior (exclusivo) da partição, lido de "FOR VALUES FROM (...) TO ('yyyy-MM-dd')"
+         */
+        LocalDate upperBound() {
+            Matcher matcher = UPPER_BOUND.matcher(bound);
+            return matcher.find() ? LocalDate.parse(matcher.group(1)) : null;
+        }
+    }
+}
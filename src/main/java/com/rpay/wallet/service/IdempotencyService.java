@@ -1,26 +1,82 @@
 package com.rpay.wallet.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.dto.IdempotentResponse;
 import com.rpay.wallet.exception.ConflictException;
+import com.rpay.wallet.exception.CustomException;
+import com.rpay.wallet.exception.IdempotentReplayException;
 import com.rpay.wallet.model.IdempotencyKey;
+import com.rpay.wallet.model.IdempotencyOperation;
 import com.rpay.wallet.model.Transaction;
+import com.rpay.wallet.repository.IdempotencyClaim;
 import com.rpay.wallet.repository.IdempotencyKeyRepository;
 import com.rpay.wallet.repository.TransactionRepository;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 @Service
 public class IdempotencyService {
 
+    /**
+     * Falhas determinísticas, que se repetiriam com a mesma requisição; as demais (409, 429, 500) não são gravadas
+     */
+    private static final Set<HttpStatus> REPLAYABLE_FAILURES = Set.of(HttpStatus.NOT_FOUND, HttpStatus.UNPROCESSABLE_ENTITY);
+
     private final IdempotencyKeyRepository idempotencyKeyRepository;
     private final TransactionRepository transactionRepository;
+    private final IdempotencyCache idempotencyCache;
+    private final ObjectMapper objectMapper;
+    private final IdempotencyPartitionService idempotencyPartitionService;
+    private final IdempotencyBloomFilter idempotencyBloomFilter;
+    private final WalletProperties walletProperties;
 
     public IdempotencyService(IdempotencyKeyRepository idempotencyKeyRepository,
-                              TransactionRepository transactionRepository) {
+                              TransactionRepository transactionRepository,
+                              IdempotencyCache idempotencyCache,
+                              ObjectMapper objectMapper,
+                              IdempotencyPartitionService idempotencyPartitionService,
+                              IdempotencyBloomFilter idempotencyBloomFilter,
+                              WalletProperties walletProperties) {
         this.idempotencyKeyRepository = idempotencyKeyRepository;
         this.transactionRepository = transactionRepository;
+        this.idempotencyCache = idempotencyCache;
+        this.objectMapper = objectMapper;
+        this.idempotencyPartitionService = idempotencyPartitionService;
+        this.idempotencyBloomFilter = idempotencyBloomFilter;
+        this.walletProperties = walletProperties;
+    }
+
+    /**
+     * Lança IdempotentReplayException se a resposta da chave estiver no cache em memória. Não abre transação:
+     * deve ser chamado antes de executeWithIdempotency para responder replays sem usar uma conexão do banco.
+     */
+    public void replayIfCached(String idempotencyKey, String userId, String operation) {
+        if (idempotencyKey == null) {
+            return;
+        }
+        Optional<IdempotentResponse> cached = idempotencyCache.get(IdempotencyKey.hash(idempotencyKey, userId, operation));
+        if (cached.isPresent()) {
+            throw replay(cached.get());
+        }
     }
 
     /**
@@ -30,8 +86,10 @@ public class IdempotencyService {
      * @param userId              ID do usuário
      * @param operation           Tipo da operação (DEPOSIT, WITHDRAWAL, TRANSFER_OUT)
      * @param transactionSupplier Função que executa a operação e retorna a transação
-     * @return A transação (nova ou existente)
+     * @return A transação nova
+     * @throws IdempotentReplayException se a chave já foi processada, com a resposta gravada
      */
+    @Transactional(noRollbackFor = IdempotentReplayException.class)
     public Transaction executeWithIdempotency(String idempotencyKey,
                                               String userId,
                                               String operation,
@@ -41,42 +99,282 @@ public class IdempotencyService {
             return transactionSupplier.get();
         }
 
-        // Verifica se já existe
-        Optional<IdempotencyKey> existing = idempotencyKeyRepository
-                .findByKeyAndUserIdAndOperation(idempotencyKey, userId, operation);
-
+        // Reserva a chave; se ela já existia, devolve a resposta gravada
+        UUID keyHash = IdempotencyKey.hash(idempotencyKey, userId, operation);
+        LocalDateTime claimedAt = LocalDateTime.now();
+        Optional<IdempotentResponse> existing = claim(keyHash, operation, claimedAt);
         if (existing.isPresent()) {
-            // Retorna a transação existente
-            return transactionRepository.findById(UUID.fromString(existing.get().getReferenceId()))
-                    .orElseThrow(() -> new ConflictException("Transação já processada para este idempotency key"));
+            throw replay(existing.get());
         }
 
         // Executa a operação
         Transaction transaction = transactionSupplier.get();
 
-        // Salva o registro de idempotência
-        saveIdempotencyRecord(idempotencyKey, userId, operation, transaction.getId().toString());
+        // Grava a resposta na chave reservada
+        complete(keyHash, claimedAt.toLocalDate(), transaction);
 
         return transaction;
     }
 
     /**
-     * Salva um registro de idempotência
+     * Grava a resposta de erro de uma operação que falhou, para que as próximas tentativas com a mesma chave
+     * recebam o mesmo erro. Deve ser chamado depois do rollback da transação que reservou a chave.
+     */
+    @Transactional
+    public void recordFailure(String idempotencyKey, String userId, String operation, CustomException failure) {
+        if (idempotencyKey == null || !REPLAYABLE_FAILURES.contains(failure.getHttpStatus())) {
+            return;
+        }
+
+        UUID keyHash = IdempotencyKey.hash(idempotencyKey, userId, operation);
+        IdempotentResponse response = failureResponse(failure);
+        LocalDateTime createdAt = LocalDateTime.now();
+        lockKey(keyHash, createdAt);
+        if (idempotencyKeyRepository.insertResponse(keyHash, IdempotencyOperation.valueOf(operation).getCode(),
+                response.getStatus(), response.getBody(), createdAt, idempotencyPartitionService.liveFrom()) > 0) {
+            idempotencyCache.putAfterCommit(keyHash, response);
+        }
+    }
+
+    /**
+     * Executa um lote de comandos com controle de idempotência em uma única transação. Comandos cuja
+     * chave já foi processada recebem a resposta gravada; chaves repetidas dentro do lote recebem
+     * o resultado do primeiro comando com a mesma chave. A rejeição de um comando também é gravada
+     * quando é uma falha determinística; caso contrário a chave é liberada.
+     *
+     * @param commands      Comandos na ordem em que devem ser aplicados
+     * @param batchExecutor Função que aplica os comandos ainda não processados e retorna um resultado por comando
+     * @return Um resultado por comando, na mesma ordem
+     */
+    @Transactional
+    public List<CommandResult> executeBatchWithIdempotency(List<WalletCommand> commands,
+                                                           Function<List<WalletCommand>, List<CommandResult>> batchExecutor) {
+        CommandResult[] results = new CommandResult[commands.size()];
+        UUID[] keyHashes = new UUID[commands.size()];
+        Map<UUID, Integer> firstByHash = new HashMap<>();
+        Map<Integer, Integer> duplicates = new HashMap<>();
+        List<Integer> pendingIndexes = new ArrayList<>();
+        LocalDateTime claimedAt = LocalDateTime.now();
+
+        for (int i = 0; i < commands.size(); i++) {
+            WalletCommand command = commands.get(i);
+            if (command.getIdempotencyKey() == null) {
+                pendingIndexes.add(i);
+                continue;
+            }
+
+            keyHashes[i] = IdempotencyKey.hash(command.getIdempotencyKey(), command.getUserId(), command.getType().name());
+            Integer first = firstByHash.putIfAbsent(keyHashes[i], i);
+            if (first != null) {
+                duplicates.put(i, first);
+                continue;
+            }
+
+            Optional<IdempotentResponse> cached = idempotencyCache.get(keyHashes[i]);
+            if (cached.isPresent()) {
+                results[i] = toCommandResult(cached.get());
+                continue;
+            }
+            try {
+                Optional<IdempotentResponse> existing = claim(keyHashes[i], command.getType().name(), claimedAt);
+                if (existing.isPresent()) {
+                    results[i] = toCommandResult(existing.get());
+                } else {
+                    pendingIndexes.add(i);
+                }
+            } catch (ConflictException e) {
+                results[i] = CommandResult.failure(e);
+            }
+        }
+
+        List<CommandResult> executed = batchExecutor.apply(pendingIndexes.stream().map(commands::get).toList());
+        for (int j = 0; j < pendingIndexes.size(); j++) {
+            int index = pendingIndexes.get(j);
+            UUID keyHash = keyHashes[index];
+            results[index] = executed.get(j);
+
+            if (keyHash == null) {
+                continue;
+            }
+            if (results[index].isSuccess()) {
+                complete(keyHash, claimedAt.toLocalDate(), results[index].getTransaction());
+            } else if (results[index].getError() instanceof CustomException failure
+                    && REPLAYABLE_FAILURES.contains(failure.getHttpStatus())) {
+                IdempotentResponse response = failureResponse(failure);
+                idempotencyKeyRepository.complete(keyHash, claimedAt.toLocalDate(), null, response.getStatus(),
+                        response.getBody());
+                idempotencyCache.putAfterCommit(keyHash, response);
+            } else {
+                idempotencyKeyRepository.release(keyHash, claimedAt.toLocalDate());
+            }
+        }
+        duplicates.forEach((index, first) -> results[index] = results[first]);
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Reserva a chave de idempotência na partição do dia de claimedAt. Se o filtro de Bloom garante que a chave
+     * não existe nos dias anteriores, a verificação desses dias é pulada. Perto da meia-noite o lock da chave é
+     * mantido mesmo assim: os filtros só cobrem dias fechados, e uma reserva ainda não commitada do dia
+     * anterior só é vista depois que esse lock é liberado. No PostgreSQL
+     * a reserva e a leitura da resposta de uma chave existente são um único comando (veja claimOrFind).
+     *
+     * @return Vazio se a chave foi reservada por esta transação, senão a resposta gravada para ela
+     */
+    private Optional<IdempotentResponse> claim(UUID keyHash, String operation, LocalDateTime claimedAt) {
+        short code = IdempotencyOperation.valueOf(operation).getCode();
+        IdempotencyBloomFilter.Result olderDays = idempotencyBloomFilter.check(keyHash, claimedAt.toLocalDate());
+        boolean skipOlderDays = olderDays == IdempotencyBloomFilter.Result.ABSENT;
+        lockKey(keyHash, claimedAt);
+
+        Optional<IdempotentResponse> existing = idempotencyPartitionService.isPartitioned()
+                ? claimOrFind(keyHash, code, claimedAt, skipOlderDays)
+                : claimThenFind(keyHash, code, claimedAt, skipOlderDays);
+        if (existing.isEmpty() && olderDays == IdempotencyBloomFilter.Result.MAYBE) {
+            idempotencyBloomFilter.recordFalsePositive();
+        }
+        return existing;
+    }
+
+    /**
+     * Reserva e leitura da resposta existente em um único comando (PostgreSQL)
+     */
+    private Optional<IdempotentResponse> claimOrFind(UUID keyHash, short code, LocalDateTime claimedAt,
+                                                     boolean skipOlderDays) {
+        LocalDate liveFrom = idempotencyPartitionService.liveFrom();
+        Optional<IdempotencyClaim> result = skipOlderDays
+                ? idempotencyKeyRepository.claimNewOrFind(keyHash, code, claimedAt, liveFrom)
+                : idempotencyKeyRepository.claimOrFind(keyHash, code, claimedAt, liveFrom);
+        if (result.isEmpty()) {
+            // Uma reserva concorrente commitou depois do snapshot do comando
+            return Optional.of(findClaimedResponse(keyHash));
+        }
+
+        IdempotencyClaim claim = result.get();
+        if (claim.getClaimed()) {
+            return Optional.empty();
+        }
+        return Optional.of(resolveClaimedResponse(keyHash,
+                new IdempotentResponse(claim.getReferenceId(), claim.getResponseStatus(), claim.getResponseBody())));
+    }
+
+    /**
+     * Reserva com INSERT e, se a chave já existia, lê a resposta com um segundo comando (H2, que não executa
+     * CTEs com INSERT)
+     */
+    private Optional<IdempotentResponse> claimThenFind(UUID keyHash, short code, LocalDateTime claimedAt,
+                                                       boolean skipOlderDays) {
+        int claimed = skipOlderDays
+                ? idempotencyKeyRepository.claimNew(keyHash, code, claimedAt)
+                : idempotencyKeyRepository.claim(keyHash, code, claimedAt, idempotencyPartitionService.liveFrom());
+        return claimed > 0 ? Optional.empty() : Optional.of(findClaimedResponse(keyHash));
+    }
+
+    /**
+     * Serializa as reservas da mesma chave que podem cair em partições de dias diferentes. Isso só acontece
+     * se uma delas ainda não commitou quando o dia vira; como nenhuma transação dura mais que
+     * wallet.idempotency.bloom.build-delay, fora dessa janela em torno da meia-noite a chave primária da
+     * partição do dia basta e o lock (um round trip a mais por reserva) é pulado.
+     */
+    private void lockKey(UUID keyHash, LocalDateTime claimedAt) {
+        Duration window = walletProperties.getIdempotency().getBloom().getBuildDelay();
+        if (idempotencyPartitionService.isPartitioned() && isNearMidnight(claimedAt, window)) {
+            idempotencyKeyRepository.lockKey(keyHash.getMostSignificantBits());
+        }
+    }
+
+    /**
+     * Se claimedAt está a menos de window da meia-noite anterior ou da seguinte
+     */
+    static boolean isNearMidnight(LocalDateTime claimedAt, Duration window) {
+        LocalDateTime startOfDay = claimedAt.toLocalDate().atStartOfDay();
+        return claimedAt.isBefore(startOfDay.plus(window))
+                || !claimedAt.isBefore(startOfDay.plusDays(1).minus(window));
+    }
+
+    /**
+     * Grava a transação criada como resposta 201 da chave reservada
+     */
+    private void complete(UUID keyHash, LocalDate claimedOn, Transaction transaction) {
+        IdempotentResponse response = new IdempotentResponse(transaction.getId().toString(),
+                HttpStatus.CREATED.value(), toJson(transaction));
+        idempotencyKeyRepository.complete(keyHash, claimedOn, response.getReferenceId(), response.getStatus(),
+                response.getBody());
+        idempotencyCache.putAfterCommit(keyHash, response);
+    }
+
+    /**
+     * Busca a resposta de uma chave que já estava reservada. Registros gravados antes do snapshot de resposta
+     * só têm o ID da transação, que é carregada e serializada.
      */
-    private void saveIdempotencyRecord(String idempotencyKey, String userId, String operation, String transactionId) {
-        idempotencyKeyRepository.save(IdempotencyKey.builder()
-                .referenceId(transactionId)
-                .operation(operation)
-                .key(idempotencyKey)
-                .userId(userId)
-                .build());
+    private IdempotentResponse findClaimedResponse(UUID keyHash) {
+        return resolveClaimedResponse(keyHash, idempotencyKeyRepository
+                .findResponse(keyHash, idempotencyPartitionService.liveFrom())
+                .orElseThrow(() -> new ConflictException("Transação já processada para este idempotency key")));
+    }
+
+    /**
+     * Completa a resposta lida de uma chave que já estava reservada e a guarda no cache depois do commit
+     */
+    private IdempotentResponse resolveClaimedResponse(UUID keyHash, IdempotentResponse response) {
+        if (!response.isStored()) {
+            if (response.getReferenceId() == null) {
+                throw new ConflictException("Operação ainda em processamento para este idempotency key");
+            }
+            Transaction transaction = transactionRepository.findById(UUID.fromString(response.getReferenceId()))
+                    .orElseThrow(() -> new ConflictException("Transação já processada para este idempotency key"));
+            response = new IdempotentResponse(response.getReferenceId(), HttpStatus.CREATED.value(), toJson(transaction));
+        }
+        idempotencyCache.putAfterCommit(keyHash, response);
+        return response;
+    }
+
+    /**
+     * Converte uma resposta gravada no resultado de um comando em lote, que precisa da transação
+     */
+    private CommandResult toCommandResult(IdempotentResponse response) {
+        if (!response.isSuccess()) {
+            return CommandResult.failure(replay(response));
+        }
+        try {
+            return CommandResult.success(objectMapper.readValue(response.getBody(), Transaction.class));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read stored idempotent response", e);
+        }
+    }
+
+    private IdempotentReplayException replay(IdempotentResponse response) {
+        if (response.isSuccess()) {
+            return new IdempotentReplayException(response, "Idempotent replay");
+        }
+        try {
+            return new IdempotentReplayException(response,
+                    objectMapper.readTree(response.getBody()).path("detail").asText(null));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read stored idempotent response", e);
+        }
+    }
+
+    private IdempotentResponse failureResponse(CustomException failure) {
+        ProblemDetail problem = ProblemDetail.forStatusAndDetail(failure.getHttpStatus(), failure.getMessage());
+        return new IdempotentResponse(null, failure.getHttpStatus().value(), toJson(problem));
+    }
+
+    private byte[] toJson(Object body) {
+        try {
+            return objectMapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize idempotent response", e);
+        }
     }
 
     /**
      * Verifica se uma chave de idempotência já existe
      */
     public boolean exists(String idempotencyKey, String userId, String operation) {
-        return idempotencyKeyRepository.findByKeyAndUserIdAndOperation(idempotencyKey, userId, operation)
+        return idempotencyKeyRepository.findByKeyHashAndCreatedOnGreaterThanEqual(
+                IdempotencyKey.hash(idempotencyKey, userId, operation), idempotencyPartitionService.liveFrom())
                 .isPresent();
     }
 
@@ -84,7 +382,9 @@ public class IdempotencyService {
      * Busca uma transação existente por idempotency key
      */
     public Optional<Transaction> findExistingTransaction(String idempotencyKey, String userId, String operation) {
-        return idempotencyKeyRepository.findByKeyAndUserIdAndOperation(idempotencyKey, userId, operation)
+        return idempotencyKeyRepository.findByKeyHashAndCreatedOnGreaterThanEqual(
+                IdempotencyKey.hash(idempotencyKey, userId, operation), idempotencyPartitionService.liveFrom())
+                .filter(record -> record.getReferenceId() != null)
                 .flatMap(record -> transactionRepository.findById(UUID.fromString(record.getReferenceId())));
     }
 }
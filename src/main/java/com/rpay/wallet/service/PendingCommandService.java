@@ -0,0 +1,226 @@
+package com.rpay.wallet.service;
+
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.dto.BatchItemResult;
+import com.rpay.wallet.exception.CustomException;
+import com.rpay.wallet.exception.NotFoundException;
+import com.rpay.wallet.exception.WalletBusyException;
+import com.rpay.wallet.model.CommandStatus;
+import com.rpay.wallet.model.PendingCommand;
+import com.rpay.wallet.repository.PendingCommandRepository;
+import jakarta.validation.ConstraintViolationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Modo assíncrono: a operação é gravada em pending_commands e respondida com 202, e um poller aplica os
+ * comandos pendentes em lotes (uma transação por lote, em ordem de chegada) usando o mesmo caminho do
+ * group commit. O resultado fica no próprio comando, consultado por GET /api/wallets/commands/{id}.
+ */
+@Service
+public class PendingCommandService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PendingCommandService.class);
+
+    /**
+     * Tamanho da coluna pending_commands.error
+     */
+    static final int MAX_ERROR_LENGTH = 255;
+
+    private final PendingCommandRepository pendingCommandRepository;
+    private final IdempotencyService idempotencyService;
+    private final TransactionService transactionService;
+    private final TransactionTemplate transactionTemplate;
+    private final WalletProperties walletProperties;
+
+    public PendingCommandService(PendingCommandRepository pendingCommandRepository,
+                                 IdempotencyService idempotencyService,
+                                 TransactionService transactionService,
+                                 TransactionTemplate transactionTemplate,
+                                 WalletProperties walletProperties) {
+        this.pendingCommandRepository = pendingCommandRepository;
+        this.idempotencyService = idempotencyService;
+        this.transactionService = transactionService;
+        this.transactionTemplate = transactionTemplate;
+        this.walletProperties = walletProperties;
+    }
+
+    /**
+     * Grava o comando como PENDING; ele é aplicado pelo próximo ciclo do poller. Um reenvio com a mesma chave
+     * de idempotência devolve o comando já aceito em vez de enfileirar a operação de novo.
+     */
+    public PendingCommand submit(WalletCommand command) {
+        Optional<PendingCommand> existing = findSubmitted(command);
+        if (existing.isPresent()) {
+            return existing.get();
+        }
+
+        try {
+            return pendingCommandRepository.save(toPendingCommand(command));
+        } catch (DataIntegrityViolationException e) {
+            // Outra requisição com a mesma chave gravou o comando ao mesmo tempo
+            return findSubmitted(command).orElseThrow(() -> e);
+        }
+    }
+
+    private Optional<PendingCommand> findSubmitted(WalletCommand command) {
+        if (command.getIdempotencyKey() == null) {
+            return Optional.empty();
+        }
+        return pendingCommandRepository.findByIdempotencyKeyAndUserIdAndType(
+                command.getIdempotencyKey(), command.getUserId(), command.getType());
+    }
+
+    private PendingCommand toPendingCommand(WalletCommand command) {
+        return PendingCommand.builder()
+                .type(command.getType())
+                .userId(command.getUserId())
+                .toUserId(command.getToUserId())
+                .amount(command.getAmount())
+                .description(command.getDescription())
+                .idempotencyKey(command.getIdempotencyKey())
+                .status(CommandStatus.PENDING)
+                .build();
+    }
+
+    /**
+     * Busca um comando assíncrono pelo id. Lê no pool de escrita, e não na réplica, para que o comando fique
+     * visível logo depois de enfileirado.
+     */
+    @Transactional
+    public PendingCommand getCommand(UUID id) {
+        return pendingCommandRepository.findById(id)
+                .orElseThrow(() -> new NotFoundException("Command not found: " + id));
+    }
+
+    /**
+     * Aplica os comandos pendentes até esvaziar a fila. Se um lote inteiro falhar, o restante do ciclo é
+     * processado um comando por vez. O comando que falhar sozinho por um erro determinístico (validação,
+     * regra de negócio) é marcado como FAILED; por um erro transitório continua PENDING, conta uma tentativa
+     * e o ciclo termina, para que o próximo o repita sem ultrapassá-lo com comandos mais novos.
+     */
+    @Scheduled(fixedDelayString = "${wallet.async.poll-interval}")
+    public void processPending() {
+        if (!walletProperties.getAsync().isPollerEnabled()) {
+            return;
+        }
+
+        int batchSize = walletProperties.getAsync().getBatchSize();
+        while (true) {
+            int limit = batchSize;
+            List<UUID> picked = new ArrayList<>(limit);
+            try {
+                Integer applied = transactionTemplate.execute(status -> applyNextBatch(limit, picked));
+                if (applied == null || applied < limit) {
+                    return;
+                }
+            } catch (RuntimeException e) {
+                if (batchSize > 1) {
+                    logger.warn("Batch of pending commands failed, applying one by one.", e);
+                    batchSize = 1;
+                } else if (picked.isEmpty()) {
+                    logger.error("Could not read pending commands.", e);
+                    return;
+                } else if (isDeterministic(e)) {
+                    logger.error("Pending command {} failed.", picked.get(0), e);
+                    transactionTemplate.executeWithoutResult(status -> failCommand(picked.get(0), e));
+                } else {
+                    logger.warn("Pending command {} failed, keeping it pending.", picked.get(0), e);
+                    transactionTemplate.executeWithoutResult(status -> retryLater(picked.get(0), e));
+                    return;
+                }
+            }
+        }
+    }
+
+    private int applyNextBatch(int limit, List<UUID> picked) {
+        List<PendingCommand> batch = pendingCommandRepository.findPendingWithLock(Limit.of(limit));
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        batch.forEach(pending -> picked.add(pending.getId()));
+
+        List<CommandResult> results = idempotencyService.executeBatchWithIdempotency(
+                batch.stream().map(this::toWalletCommand).toList(), transactionService::applyBatch);
+
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < batch.size(); i++) {
+            PendingCommand pending = batch.get(i);
+            CommandResult result = results.get(i);
+            if (result.isSuccess()) {
+                pending.setStatus(CommandStatus.COMPLETED);
+                pending.setTransactionId(result.getTransaction().getId());
+                pending.setBalanceAfter(result.getTransaction().getBalanceAfter());
+            } else {
+                fail(pending, BatchItemResult.failure(i, result.getError()));
+            }
+            pending.setProcessedAt(now);
+        }
+        pendingCommandRepository.saveAll(batch);
+        return batch.size();
+    }
+
+    /**
+     * Erros que se repetiriam a cada tentativa. WalletBusyException é um CustomException, mas só diz que a
+     * carteira estava travada naquele momento.
+     */
+    private boolean isDeterministic(RuntimeException error) {
+        return (error instanceof CustomException && !(error instanceof WalletBusyException))
+                || error instanceof IllegalArgumentException
+                || error instanceof ConstraintViolationException;
+    }
+
+    private void failCommand(UUID id, RuntimeException error) {
+        pendingCommandRepository.findById(id)
+                .filter(pending -> pending.getStatus() == CommandStatus.PENDING)
+                .ifPresent(pending -> {
+                    fail(pending, BatchItemResult.failure(0, error));
+                    pending.setProcessedAt(LocalDateTime.now());
+                    pendingCommandRepository.save(pending);
+                });
+    }
+
+    private void retryLater(UUID id, RuntimeException error) {
+        pendingCommandRepository.findById(id)
+                .filter(pending -> pending.getStatus() == CommandStatus.PENDING)
+                .ifPresent(pending -> {
+                    pending.setAttempts(pending.getAttempts() + 1);
+                    if (pending.getAttempts() >= walletProperties.getAsync().getMaxAttempts()) {
+                        fail(pending, BatchItemResult.failure(0, error));
+                        pending.setProcessedAt(LocalDateTime.now());
+                    }
+                    pendingCommandRepository.save(pending);
+                });
+    }
+
+    private void fail(PendingCommand pending, BatchItemResult failure) {
+        pending.setStatus(CommandStatus.FAILED);
+        pending.setErrorStatus(failure.getStatus());
+        String error = failure.getError();
+        pending.setError(error != null && error.length() > MAX_ERROR_LENGTH
+                ? error.substring(0, MAX_ERROR_LENGTH - 3) + "..." : error);
+    }
+
+    private WalletCommand toWalletCommand(PendingCommand pending) {
+        return WalletCommand.builder()
+                .type(pending.getType())
+                .userId(pending.getUserId())
+                .toUserId(pending.getToUserId())
+                .amount(pending.getAmount())
+                .description(pending.getDescription())
+                .idempotencyKey(pending.getIdempotencyKey())
+                .build();
+    }
+}
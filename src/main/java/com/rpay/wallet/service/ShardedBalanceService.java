@@ -0,0 +1,162 @@
+package com.rpay.wallet.service;
+
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.exception.NotFoundException;
+import com.rpay.wallet.exception.UnprocessableEntityException;
+import com.rpay.wallet.model.BalanceSlot;
+import com.rpay.wallet.model.Wallet;
+import com.rpay.wallet.repository.BalanceSlotRepository;
+import com.rpay.wallet.repository.TransactionRepository;
+import com.rpay.wallet.repository.WalletRepository;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Carteiras sharded mantêm parte do saldo em N slots (wallet_balance_slots). Créditos vão para o
+ * primeiro slot livre sem travar a linha da carteira; débitos travam a carteira e, se o saldo da
+ * carteira não for suficiente, varrem os slots para ela.
+ */
+@Service
+public class ShardedBalanceService {
+
+    private final BalanceSlotRepository balanceSlotRepository;
+    private final WalletRepository walletRepository;
+    private final TransactionRepository transactionRepository;
+    private final WalletProperties walletProperties;
+    private final BalanceCache balanceCache;
+
+    /**
+     * Carteiras sharded conhecidas por este nó. Uma entrada desatualizada só faz o crédito cair na
+     * linha da carteira, que continua sendo um destino válido.
+     */
+    private final Map<String, Integer> slotCounts = new ConcurrentHashMap<>();
+
+    public ShardedBalanceService(BalanceSlotRepository balanceSlotRepository,
+                                 WalletRepository walletRepository,
+                                 TransactionRepository transactionRepository,
+                                 WalletProperties walletProperties,
+                                 BalanceCache balanceCache) {
+        this.balanceSlotRepository = balanceSlotRepository;
+        this.walletRepository = walletRepository;
+        this.transactionRepository = transactionRepository;
+        this.walletProperties = walletProperties;
+        this.balanceCache = balanceCache;
+    }
+
+    public boolean isSharded(String userId) {
+        return slotCounts.containsKey(userId);
+    }
+
+    /**
+     * Credita o primeiro slot livre da carteira e avança a sequência do slot, que fica travado até o commit:
+     * créditos em slots diferentes não esperam uns pelos outros nem pela linha da carteira. Por isso o crédito
+     * não tem saldo total posterior: os outros slots podem ter créditos ainda não commitados.
+     *
+     * @return O slot e o seq do crédito na sequência do slot, ou vazio se todos os slots estiverem travados
+     */
+    public Optional<SlotCredit> credit(String userId, BigDecimal amount) {
+        List<BalanceSlot> slots = balanceSlotRepository.findUnlockedSlots(userId, Limit.of(1));
+        if (slots.isEmpty()) {
+            return Optional.empty();
+        }
+
+        BalanceSlot slot = slots.get(0);
+        slot.setBalance(slot.getBalance().add(amount));
+        slot.setLastSeq(slot.getLastSeq() + 1);
+        balanceSlotRepository.save(slot);
+        return Optional.of(new SlotCredit(slot.getSlot(), slot.getLastSeq()));
+    }
+
+    /**
+     * Move o saldo de todos os slots para a carteira (que já deve estar travada)
+     */
+    public void sweepInto(Wallet wallet) {
+        BigDecimal swept = BigDecimal.ZERO;
+        for (BalanceSlot slot : balanceSlotRepository.findAllByUserIdWithLock(wallet.getUserId())) {
+            swept = swept.add(slot.getBalance());
+            slot.setBalance(BigDecimal.ZERO);
+        }
+        wallet.setBalance(wallet.getBalance().add(swept));
+    }
+
+    /**
+     * Saldo da carteira somado ao saldo dos slots
+     */
+    public BigDecimal totalBalance(Wallet wallet) {
+        return wallet.getBalance().add(balanceSlotRepository.sumBalanceByUserId(wallet.getUserId()));
+    }
+
+    /**
+     * Altera a quantidade de slots da carteira. Slots removidos têm o saldo devolvido à carteira.
+     */
+    @Transactional
+    public Wallet configureSlots(String userId, int slotCount) {
+        if (slotCount < 0 || slotCount > walletProperties.getSharding().getMaxSlots()) {
+            throw new UnprocessableEntityException("Slot count must be between 0 and "
+                    + walletProperties.getSharding().getMaxSlots());
+        }
+
+        Wallet wallet = walletRepository.findByUserIdWithLock(userId)
+                .orElseThrow(() -> new NotFoundException("Wallet not found for user: " + userId));
+
+        List<BalanceSlot> slots = balanceSlotRepository.findAllByUserIdWithLock(userId);
+        for (BalanceSlot slot : slots) {
+            if (slot.getSlot() >= slotCount) {
+                wallet.setBalance(wallet.getBalance().add(slot.getBalance()));
+                balanceSlotRepository.delete(slot);
+            }
+        }
+        for (int slot = slots.size(); slot < slotCount; slot++) {
+            // Um slot removido e criado de novo continua a sequência dos créditos que já recebeu
+            balanceSlotRepository.save(new BalanceSlot(userId, slot, transactionRepository.findLastSeqBySlot(userId, slot)));
+        }
+
+        wallet.setSlotCount(slotCount);
+        Wallet saved = walletRepository.save(wallet);
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                register(userId, slotCount);
+                balanceCache.evict(userId);
+            }
+        });
+        return saved;
+    }
+
+    /**
+     * Recarrega do banco a lista de carteiras sharded, incluindo as configuradas por outros nós
+     */
+    @Scheduled(fixedDelayString = "${wallet.sharding.refresh-interval}")
+    public void refreshShardedWallets() {
+        Map<String, Integer> current = walletRepository.findShardedWallets().stream()
+                .collect(Collectors.toMap(Wallet::getUserId, Wallet::getSlotCount));
+        slotCounts.keySet().retainAll(current.keySet());
+        slotCounts.putAll(current);
+    }
+
+    private void register(String userId, int slotCount) {
+        if (slotCount > 0) {
+            slotCounts.put(userId, slotCount);
+        } else {
+            slotCounts.remove(userId);
+        }
+    }
+
+    /**
+     * Crédito aplicado em um slot: o seq é a posição do crédito na sequência do slot
+     */
+    public record SlotCredit(int slot, long seq) {
+    }
+}
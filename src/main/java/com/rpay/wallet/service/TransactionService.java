@@ -1,98 +1,245 @@
 package com.rpay.wallet.service;
 
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.config.WalletProperties.LockWait;
+import com.rpay.wallet.config.WalletProperties.WriteMode;
+import com.rpay.wallet.dto.HistoricalBalance;
 import com.rpay.wallet.dto.TransactionRequest;
 import com.rpay.wallet.dto.TransferRequest;
+import com.rpay.wallet.exception.CustomException;
 import com.rpay.wallet.exception.NotFoundException;
 import com.rpay.wallet.exception.UnprocessableEntityException;
+import com.rpay.wallet.exception.WalletBusyException;
+import com.rpay.wallet.model.BalanceCheckpoint;
+import com.rpay.wallet.model.BalanceCheckpointId;
 import com.rpay.wallet.model.Transaction;
 import com.rpay.wallet.model.TransactionType;
 import com.rpay.wallet.model.Wallet;
+import com.rpay.wallet.repository.BalanceCheckpointRepository;
+import com.rpay.wallet.repository.DatabasePlatform;
+import com.rpay.wallet.repository.LedgerRepository;
 import com.rpay.wallet.repository.TransactionRepository;
 import com.rpay.wallet.repository.WalletRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @Service
 public class TransactionService {
 
+    private static final int LOCK_CHUNK_SIZE = 1000;
+    private static final int MAX_HISTORY_PAGE = 1000;
+
     private final TransactionRepository transactionRepository;
     private final WalletRepository walletRepository;
+    private final LedgerRepository ledgerRepository;
+    private final BalanceCheckpointRepository balanceCheckpointRepository;
+    private final DatabasePlatform databasePlatform;
+    private final ShardedBalanceService shardedBalanceService;
+    private final HistoricalBalanceCache historicalBalanceCache;
+    private final BalanceCache balanceCache;
+    private final WalletProperties walletProperties;
+    private final MeterRegistry meterRegistry;
 
     public TransactionService(TransactionRepository transactionRepository,
-                             WalletRepository walletRepository) {
+                             WalletRepository walletRepository,
+                             LedgerRepository ledgerRepository,
+                             BalanceCheckpointRepository balanceCheckpointRepository,
+                             DatabasePlatform databasePlatform,
+                             ShardedBalanceService shardedBalanceService,
+                             HistoricalBalanceCache historicalBalanceCache,
+                             BalanceCache balanceCache,
+                             WalletProperties walletProperties,
+                             MeterRegistry meterRegistry) {
         this.transactionRepository = transactionRepository;
         this.walletRepository = walletRepository;
+        this.ledgerRepository = ledgerRepository;
+        this.balanceCheckpointRepository = balanceCheckpointRepository;
+        this.databasePlatform = databasePlatform;
+        this.shardedBalanceService = shardedBalanceService;
+        this.historicalBalanceCache = historicalBalanceCache;
+        this.balanceCache = balanceCache;
+        this.walletProperties = walletProperties;
+        this.meterRegistry = meterRegistry;
     }
 
     /**
-     * Busca o histórico de saldo em um timestamp específico
+     * Busca o histórico de saldo em um timestamp específico. Saldos fora da janela de segurança vêm do
+     * HistoricalBalanceCache.
      */
     public BigDecimal getHistoricalBalance(String userId, LocalDateTime timestamp) {
-        Optional<Transaction> lastTransaction = transactionRepository
-                .findLastTransactionBeforeTimestamp(userId, timestamp);
+        return historicalBalanceCache.get(userId, timestamp, () -> loadHistoricalBalance(userId, timestamp));
+    }
+
+    /**
+     * Lê a criação da carteira e o saldo da última transação até o timestamp em uma única consulta. Se essa
+     * transação foi gravada com a carteira sharded, o saldo é somado a partir do checkpoint anterior; sem
+     * transação até o timestamp, vem do checkpoint mais recente anterior ao dia (transações arquivadas) ou é
+     * zero, se a carteira já existia. Um dia arquivado só tem o saldo de fim de dia: um timestamp dentro dele
+     * responde 422.
+     */
+    private BigDecimal loadHistoricalBalance(String userId, LocalDateTime timestamp) {
+        HistoricalBalance historical = walletRepository.findHistoricalBalance(userId, timestamp)
+                .orElseThrow(() -> new NotFoundException("Wallet not found for user: " + userId));
 
-        if (lastTransaction.isPresent()) {
-            return lastTransaction.get().getBalanceAfter();
-        } else {
-            // If no transactions before timestamp, check if wallet existed
-            Wallet wallet = findWallet(userId);
+        if (historical.getBalance() != null) {
+            return historical.getBalance();
+        }
+        LocalDate day = timestamp.toLocalDate();
+        if (historical.getTransactionAt() == null && isArchived(userId, day, timestamp)) {
+            throw new UnprocessableEntityException("Transactions of that day were archived; "
+                    + "only its end-of-day balance is available");
+        }
 
-            if (wallet.getCreatedAt().isAfter(timestamp)) {
-                throw new UnprocessableEntityException("Wallet did not exist at the specified time");
-            }
-            return BigDecimal.ZERO;
+        Optional<BalanceCheckpoint> checkpoint = balanceCheckpointRepository
+                .findFirstByUserIdAndCheckpointDateBeforeOrderByCheckpointDateDesc(userId, day);
+        if (historical.getTransactionAt() != null) {
+            return sumBalance(userId, timestamp, historical.getWalletCreatedAt(), checkpoint);
+        }
+        if (checkpoint.isPresent()) {
+            return checkpoint.get().getBalance();
         }
+        if (historical.getWalletCreatedAt().isAfter(timestamp)) {
+            throw new UnprocessableEntityException("Wallet did not exist at the specified time");
+        }
+        return BigDecimal.ZERO;
+    }
+
+    /**
+     * Indica se as transações do dia até o timestamp foram arquivadas: a carteira movimentou no dia (tem
+     * checkpoint dele), mas nenhuma transação do dia sobrou depois do timestamp. Chamado quando também não
+     * há transação até o timestamp.
+     */
+    private boolean isArchived(String userId, LocalDate day, LocalDateTime timestamp) {
+        return balanceCheckpointRepository.existsById(new BalanceCheckpointId(userId, day))
+                && !transactionRepository.existsByFromUserIdAndCreatedAtBetween(userId, timestamp,
+                        day.atTime(LocalTime.MAX));
+    }
+
+    /**
+     * Saldo no timestamp somando as variações das transações desde o checkpoint (ou desde a criação da carteira).
+     * Usado quando a última transação foi gravada com a carteira sharded: créditos em slots diferentes não
+     * são serializados por um mesmo lock, então nenhum deles sabe o saldo total depois de si.
+     */
+    private BigDecimal sumBalance(String userId, LocalDateTime timestamp, LocalDateTime walletCreatedAt,
+                                  Optional<BalanceCheckpoint> checkpoint) {
+        BigDecimal opening = checkpoint.map(BalanceCheckpoint::getBalance).orElse(BigDecimal.ZERO);
+        LocalDateTime from = checkpoint.map(c -> c.getCheckpointDate().plusDays(1).atStartOfDay())
+                .orElse(walletCreatedAt);
+        return opening.add(transactionRepository.sumChangesBetween(userId, from, timestamp));
+    }
+
+    /**
+     * Transações da carteira com seq maior que afterSeq, em ordem de sequência. O último seq da página é o
+     * cursor da próxima; uma lacuna na sequência indica transação faltando. Sem slot, lista as transações na
+     * linha da carteira, e responde 422 se a carteira tem créditos em slot: eles têm sequência própria e a
+     * listagem ficaria incompleta sem avisar. Com slot, lista os créditos naquele slot.
+     */
+    @Transactional(readOnly = true)
+    public List<Transaction> getTransactions(String userId, Integer slot, long afterSeq, int limit) {
+        if (limit < 1 || limit > MAX_HISTORY_PAGE) {
+            throw new UnprocessableEntityException("Limit must be between 1 and " + MAX_HISTORY_PAGE);
+        }
+        if (slot == null && transactionRepository.existsByFromUserIdAndSlotIsNotNull(userId)) {
+            throw new UnprocessableEntityException("Wallet has slot credits with their own sequence; "
+                    + "list each slot with the slot parameter");
+        }
+
+        List<Transaction> page = slot == null
+                ? transactionRepository.findByFromUserIdAndSlotIsNullAndSeqGreaterThanOrderBySeq(userId, afterSeq,
+                        Limit.of(limit))
+                : transactionRepository.findByFromUserIdAndSlotAndSeqGreaterThanOrderBySeq(userId, slot, afterSeq,
+                        Limit.of(limit));
+        if (page.isEmpty() && !walletRepository.existsByUserId(userId)) {
+            throw new NotFoundException("Wallet not found for user: " + userId);
+        }
+        return page;
     }
 
     /**
      * Executa um depósito
      */
     public Transaction performDeposit(TransactionRequest request) {
-        Wallet wallet = walletRepository.findByUserIdWithLock(request.getUserId())
+        if (shardedBalanceService.isSharded(request.getUserId())) {
+            Optional<ShardedBalanceService.SlotCredit> credit = shardedBalanceService.credit(request.getUserId(), request.getAmount());
+            if (credit.isPresent()) {
+                return transactionRepository.save(Transaction.builder()
+                        .fromUserId(request.getUserId())
+                        .type(TransactionType.DEPOSIT)
+                        .amount(request.getAmount())
+                        .description(request.getDescription())
+                        .slot(credit.get().slot())
+                        .seq(credit.get().seq())
+                        .build());
+            }
+        } else if (walletProperties.getWriteMode() == WriteMode.ATOMIC) {
+            return performAtomicDeposit(request);
+        }
+
+        Wallet wallet = findWalletForUpdate(request.getUserId())
                 .orElseThrow(() -> new NotFoundException("Wallet not found for user: " + request.getUserId()));
 
-        BigDecimal newBalance = wallet.getBalance().add(request.getAmount());
-        wallet.setBalance(newBalance);
+        wallet.setBalance(wallet.getBalance().add(request.getAmount()));
+        long seq = nextSeq(wallet);
         walletRepository.save(wallet);
 
         Transaction transaction = Transaction.builder()
                 .fromUserId(request.getUserId())
                 .type(TransactionType.DEPOSIT)
                 .amount(request.getAmount())
-                .balanceAfter(newBalance)
+                .balanceAfter(balanceOf(wallet))
                 .description(request.getDescription())
+                .seq(seq)
                 .build();
 
-        return transactionRepository.save(transaction);
+        return cacheBalance(transactionRepository.save(transaction));
     }
 
     /**
      * Executa um saque
      */
     public Transaction performWithdraw(TransactionRequest request) {
-        Wallet wallet = walletRepository.findByUserIdWithLock(request.getUserId())
-                .orElseThrow(() -> new NotFoundException("Wallet not found for user: " + request.getUserId()));
-
-        if (wallet.getBalance().compareTo(request.getAmount()) < 0) {
-            throw new UnprocessableEntityException("Insufficient funds");
+        if (walletProperties.getWriteMode() == WriteMode.ATOMIC) {
+            return performAtomicWithdraw(request);
         }
+        return performLockedWithdraw(request);
+    }
 
-        BigDecimal newBalance = wallet.getBalance().subtract(request.getAmount());
-        wallet.setBalance(newBalance);
+    private Transaction performLockedWithdraw(TransactionRequest request) {
+        Wallet wallet = findWalletForUpdate(request.getUserId())
+                .orElseThrow(() -> new NotFoundException("Wallet not found for user: " + request.getUserId()));
+
+        debit(wallet, request.getAmount());
+        long seq = nextSeq(wallet);
         walletRepository.save(wallet);
 
         Transaction transaction = Transaction.builder()
                 .fromUserId(request.getUserId())
                 .type(TransactionType.WITHDRAWAL)
                 .amount(request.getAmount())
-                .balanceAfter(newBalance)
+                .balanceAfter(balanceOf(wallet))
                 .description(request.getDescription())
+                .seq(seq)
                 .build();
 
-        return transactionRepository.save(transaction);
+        return cacheBalance(transactionRepository.save(transaction));
     }
 
     /**
@@ -103,30 +250,35 @@ public class TransactionService {
             throw new UnprocessableEntityException("Cannot transfer to the same wallet");
         }
 
+        if (walletProperties.getWriteMode() == WriteMode.ATOMIC) {
+            return performAtomicTransfer(request);
+        }
+        return performLockedTransfer(request);
+    }
+
+    private Transaction performLockedTransfer(TransferRequest request) {
         // Lock wallets in a consistent order to prevent deadlock
         String firstUserId = request.getFromUserId().compareTo(request.getToUserId()) < 0
                 ? request.getFromUserId() : request.getToUserId();
         String secondUserId = request.getFromUserId().compareTo(request.getToUserId()) < 0
                 ? request.getToUserId() : request.getFromUserId();
 
-        Wallet firstWallet = walletRepository.findByUserIdWithLock(firstUserId)
+        Wallet firstWallet = findWalletForUpdate(firstUserId)
                 .orElseThrow(() -> new NotFoundException("Wallet not found for user: " + firstUserId));
-        Wallet secondWallet = walletRepository.findByUserIdWithLock(secondUserId)
+        Wallet secondWallet = findWalletForUpdate(secondUserId)
                 .orElseThrow(() -> new NotFoundException("Wallet not found for user: " + secondUserId));
 
         Wallet fromWallet = request.getFromUserId().equals(firstUserId) ? firstWallet : secondWallet;
         Wallet toWallet = request.getFromUserId().equals(firstUserId) ? secondWallet : firstWallet;
 
-        if (fromWallet.getBalance().compareTo(request.getAmount()) < 0) {
-            throw new UnprocessableEntityException("Insufficient funds");
-        }
-
         // Update balances
-        BigDecimal fromNewBalance = fromWallet.getBalance().subtract(request.getAmount());
-        BigDecimal toNewBalance = toWallet.getBalance().add(request.getAmount());
+        debit(fromWallet, request.getAmount());
+        toWallet.setBalance(toWallet.getBalance().add(request.getAmount()));
 
-        fromWallet.setBalance(fromNewBalance);
-        toWallet.setBalance(toNewBalance);
+        BigDecimal fromNewBalance = balanceOf(fromWallet);
+        BigDecimal toNewBalance = balanceOf(toWallet);
+        long fromSeq = nextSeq(fromWallet);
+        long toSeq = nextSeq(toWallet);
 
         walletRepository.save(fromWallet);
         walletRepository.save(toWallet);
@@ -139,8 +291,9 @@ public class TransactionService {
                 .type(TransactionType.TRANSFER_OUT)
                 .amount(request.getAmount())
                 .balanceAfter(fromNewBalance)
+                .seq(fromSeq)
                 .build();
-        outTransaction = transactionRepository.save(outTransaction);
+        outTransaction = cacheBalance(transactionRepository.save(outTransaction));
 
         Transaction inTransaction = Transaction.builder()
                 .description(request.getDescription())
@@ -149,14 +302,295 @@ public class TransactionService {
                 .type(TransactionType.TRANSFER_IN)
                 .amount(request.getAmount())
                 .balanceAfter(toNewBalance)
+                .seq(toSeq)
                 .build();
-        transactionRepository.save(inTransaction);
+        cacheBalance(transactionRepository.save(inTransaction));
 
         return outTransaction;
     }
 
-    private Wallet findWallet(String userId) {
-        return walletRepository.findByUserId(userId)
-                .orElseThrow(() -> new NotFoundException("Wallet not found for user: " + userId));
+    /**
+     * Aplica os comandos em ordem dentro da transação corrente. Todas as carteiras envolvidas são
+     * travadas uma única vez, na mesma ordem usada por performTransfer, e as transações geradas são
+     * gravadas juntas no final. Um comando rejeitado não interrompe o lote.
+     */
+    public List<CommandResult> applyBatch(List<WalletCommand> commands) {
+        Map<String, Wallet> wallets = lockWallets(commands);
+
+        List<CommandResult> results = new ArrayList<>(commands.size());
+        List<Transaction> ledger = new ArrayList<>();
+        for (WalletCommand command : commands) {
+            try {
+                results.add(CommandResult.success(apply(command, wallets, ledger)));
+            } catch (CustomException e) {
+                results.add(CommandResult.failure(e));
+            }
+        }
+
+        walletRepository.saveAll(wallets.values());
+        transactionRepository.saveAll(ledger);
+        ledger.forEach(this::cacheBalance);
+        return results;
+    }
+
+    /**
+     * Trava todas as carteiras do lote com o mesmo wallet.lock-wait de findWalletForUpdate. No modo TIMEOUT o
+     * lock_timeout é definido uma vez e vale para cada chunk (ou carteira) travado depois dele.
+     */
+    private Map<String, Wallet> lockWallets(List<WalletCommand> commands) {
+        List<String> userIds = commands.stream()
+                .flatMap(command -> Stream.of(command.getUserId(), command.getToUserId()))
+                .filter(Objects::nonNull)
+                .distinct()
+                .sorted()
+                .toList();
+
+        return withinLockWait("A wallet in the batch is busy, please retry",
+                () -> lockAll(userIds, false), () -> lockAll(userIds, true));
+    }
+
+    private Map<String, Wallet> lockAll(List<String> userIds, boolean noWait) {
+        Map<String, Wallet> wallets = new HashMap<>();
+        if (!databasePlatform.isPostgres()) {
+            // Sem COLLATE "C": uma carteira por vez, na ordem definida em lockWallets
+            userIds.forEach(userId -> (noWait
+                    ? walletRepository.findByUserIdWithLockNoWait(userId)
+                    : walletRepository.findByUserIdWithLock(userId))
+                    .ifPresent(wallet -> wallets.put(userId, wallet)));
+            return wallets;
+        }
+        for (int from = 0; from < userIds.size(); from += LOCK_CHUNK_SIZE) {
+            List<String> chunk = userIds.subList(from, Math.min(from + LOCK_CHUNK_SIZE, userIds.size()));
+            (noWait
+                    ? walletRepository.findAllByUserIdInWithLockNoWait(chunk)
+                    : walletRepository.findAllByUserIdInWithLock(chunk))
+                    .forEach(wallet -> wallets.put(wallet.getUserId(), wallet));
+        }
+        return wallets;
+    }
+
+    private Transaction apply(WalletCommand command, Map<String, Wallet> wallets, List<Transaction> ledger) {
+        return switch (command.getType()) {
+            case DEPOSIT -> {
+                Wallet wallet = lockedWallet(wallets, command.getUserId());
+                wallet.setBalance(wallet.getBalance().add(command.getAmount()));
+                yield append(ledger, command, TransactionType.DEPOSIT, wallet, null);
+            }
+            case WITHDRAWAL -> {
+                Wallet wallet = lockedWallet(wallets, command.getUserId());
+                debit(wallet, command.getAmount());
+                yield append(ledger, command, TransactionType.WITHDRAWAL, wallet, null);
+            }
+            case TRANSFER_OUT -> {
+                if (command.getUserId().equals(command.getToUserId())) {
+                    throw new UnprocessableEntityException("Cannot transfer to the same wallet");
+                }
+                Stream.of(command.getUserId(), command.getToUserId()).sorted()
+                        .forEach(userId -> lockedWallet(wallets, userId));
+
+                Wallet fromWallet = wallets.get(command.getUserId());
+                Wallet toWallet = wallets.get(command.getToUserId());
+                debit(fromWallet, command.getAmount());
+                toWallet.setBalance(toWallet.getBalance().add(command.getAmount()));
+
+                Transaction outTransaction = append(ledger, command, TransactionType.TRANSFER_OUT,
+                        fromWallet, command.getToUserId());
+                append(ledger, command, TransactionType.TRANSFER_IN, toWallet, command.getUserId());
+                yield outTransaction;
+            }
+            default -> throw new IllegalArgumentException("Unsupported command type: " + command.getType());
+        };
+    }
+
+    private Wallet lockedWallet(Map<String, Wallet> wallets, String userId) {
+        Wallet wallet = wallets.get(userId);
+        if (wallet == null) {
+            throw new NotFoundException("Wallet not found for user: " + userId);
+        }
+        return wallet;
+    }
+
+    private Transaction append(List<Transaction> ledger, WalletCommand command, TransactionType type,
+                               Wallet wallet, String toUserId) {
+        Transaction transaction = Transaction.builder()
+                .description(command.getDescription())
+                .fromUserId(wallet.getUserId())
+                .toUserId(toUserId)
+                .type(type)
+                .amount(command.getAmount())
+                .balanceAfter(balanceOf(wallet))
+                .seq(nextSeq(wallet))
+                .build();
+        ledger.add(transaction);
+        return transaction;
+    }
+
+    /**
+     * Executa um depósito com um único statement (UPDATE ... RETURNING + INSERT)
+     */
+    private Transaction performAtomicDeposit(TransactionRequest request) {
+        Transaction transaction = Transaction.builder()
+                .id(UUID.randomUUID())
+                .fromUserId(request.getUserId())
+                .type(TransactionType.DEPOSIT)
+                .amount(request.getAmount())
+                .description(request.getDescription())
+                .createdAt(LocalDateTime.now())
+                .build();
+
+        return ledgerRepository.insertDeposit(transaction)
+                .map(this::cacheBalance)
+                .orElseThrow(() -> new NotFoundException("Wallet not found for user: " + request.getUserId()));
+    }
+
+    /**
+     * Executa um saque com um único UPDATE condicionado ao saldo (balance >= amount)
+     */
+    private Transaction performAtomicWithdraw(TransactionRequest request) {
+        Transaction transaction = Transaction.builder()
+                .id(UUID.randomUUID())
+                .fromUserId(request.getUserId())
+                .type(TransactionType.WITHDRAWAL)
+                .amount(request.getAmount())
+                .description(request.getDescription())
+                .createdAt(LocalDateTime.now())
+                .build();
+
+        Optional<Transaction> withdrawn = ledgerRepository.insertWithdrawal(transaction);
+        if (withdrawn.isPresent()) {
+            return cacheBalance(withdrawn.get());
+        }
+        if (hasBalanceSlots(request.getUserId())) {
+            return performLockedWithdraw(request);
+        }
+        throw new UnprocessableEntityException("Insufficient funds");
+    }
+
+    /**
+     * Executa uma transferência (débito, crédito e as duas transações) em um único statement
+     */
+    private Transaction performAtomicTransfer(TransferRequest request) {
+        LocalDateTime now = LocalDateTime.now();
+
+        Transaction outTransaction = Transaction.builder()
+                .id(UUID.randomUUID())
+                .description(request.getDescription())
+                .fromUserId(request.getFromUserId())
+                .toUserId(request.getToUserId())
+                .type(TransactionType.TRANSFER_OUT)
+                .amount(request.getAmount())
+                .createdAt(now)
+                .build();
+
+        Transaction inTransaction = Transaction.builder()
+                .id(UUID.randomUUID())
+                .description(request.getDescription())
+                .fromUserId(request.getToUserId())
+                .toUserId(request.getFromUserId())
+                .type(TransactionType.TRANSFER_IN)
+                .amount(request.getAmount())
+                .createdAt(now)
+                .build();
+
+        Optional<Transaction> transferred = ledgerRepository.insertTransfer(outTransaction, inTransaction);
+        if (transferred.isPresent()) {
+            cacheBalance(inTransaction);
+            return cacheBalance(transferred.get());
+        }
+        if (hasBalanceSlots(request.getFromUserId(), request.getToUserId())) {
+            return performLockedTransfer(request);
+        }
+        throw new UnprocessableEntityException("Insufficient funds");
+    }
+
+    /**
+     * Chamado quando o UPDATE atômico não alterou nenhuma linha. Falha com 404 se alguma carteira não
+     * existir (verificadas na mesma ordem em que seriam travadas) e indica se a carteira debitada
+     * (primeiro argumento) tem slots de saldo, que só o caminho com lock consegue varrer.
+     */
+    private boolean hasBalanceSlots(String debitedUserId, String... otherUserIds) {
+        Map<String, Integer> slotCounts = new HashMap<>();
+        for (String userId : Stream.concat(Stream.of(debitedUserId), Arrays.stream(otherUserIds)).sorted().toList()) {
+            slotCounts.put(userId, walletRepository.findSlotCountByUserId(userId)
+                    .orElseThrow(() -> new NotFoundException("Wallet not found for user: " + userId)));
+        }
+        return slotCounts.get(debitedUserId) > 0;
+    }
+
+    /**
+     * Carrega a carteira que será alterada: com SELECT ... FOR UPDATE ou, no modo OPTIMISTIC, sem lock
+     * (o @Version faz o commit falhar se outra transação alterou a carteira nesse meio tempo). A espera
+     * pelo lock segue wallet.lock-wait; se estourar, responde 429 em vez de segurar a conexão do pool.
+     */
+    private Optional<Wallet> findWalletForUpdate(String userId) {
+        if (walletProperties.getWriteMode() == WriteMode.OPTIMISTIC) {
+            return walletRepository.findByUserId(userId);
+        }
+
+        return withinLockWait("Wallet is busy, please retry: " + userId,
+                () -> walletRepository.findByUserIdWithLock(userId),
+                () -> walletRepository.findByUserIdWithLockNoWait(userId));
+    }
+
+    /**
+     * Executa o lock conforme wallet.lock-wait (espera, NOWAIT ou lock_timeout da transação). Se a espera
+     * estourar, conta em wallet.lock.rejected e responde 429.
+     */
+    private <T> T withinLockWait(String busyMessage, Supplier<T> lock, Supplier<T> lockNoWait) {
+        LockWait lockWait = walletProperties.getLockWait();
+        try {
+            return switch (lockWait.getMode()) {
+                case WAIT -> lock.get();
+                case NOWAIT -> lockNoWait.get();
+                case TIMEOUT -> {
+                    walletRepository.setTransactionLockTimeout(lockWait.getTimeout().toMillis() + "ms");
+                    yield lock.get();
+                }
+            };
+        } catch (PessimisticLockingFailureException e) {
+            meterRegistry.counter("wallet.lock.rejected", "mode", lockWait.getMode().name().toLowerCase()).increment();
+            throw new WalletBusyException(busyMessage, lockWait.getRetryAfter());
+        }
+    }
+
+    /**
+     * Debita uma carteira travada, varrendo os slots de saldo se a carteira sozinha não cobrir o valor
+     */
+    private void debit(Wallet wallet, BigDecimal amount) {
+        if (wallet.getSlotCount() > 0 && wallet.getBalance().compareTo(amount) < 0) {
+            shardedBalanceService.sweepInto(wallet);
+        }
+        if (wallet.getBalance().compareTo(amount) < 0) {
+            throw new UnprocessableEntityException("Insufficient funds");
+        }
+        wallet.setBalance(wallet.getBalance().subtract(amount));
+    }
+
+    /**
+     * Próximo número de sequência do ledger de uma carteira travada
+     */
+    private long nextSeq(Wallet wallet) {
+        wallet.setLastSeq(wallet.getLastSeq() + 1);
+        return wallet.getLastSeq();
+    }
+
+    /**
+     * Atualiza o cache de saldo com o balance_after da transação quando ela for commitada. Carteiras sharded
+     * ficam fora do cache: cada slot tem a sua própria sequência, e o cache é versionado pela sequência da
+     * linha da carteira, que os créditos em slot não avançam. As transações delas também não têm balance_after.
+     */
+    private Transaction cacheBalance(Transaction transaction) {
+        if (transaction.getBalanceAfter() != null && !shardedBalanceService.isSharded(transaction.getFromUserId())) {
+            balanceCache.putAfterCommit(transaction.getFromUserId(), transaction.getSeq(), transaction.getBalanceAfter());
+        }
+        return transaction;
+    }
+
+    /**
+     * Saldo gravado em balance_after. Null em carteiras sharded: o lock da carteira não impede créditos em
+     * slot ainda não commitados, então o total lido agora pode não ser o saldo após esta transação.
+     */
+    private BigDecimal balanceOf(Wallet wallet) {
+        return wallet.getSlotCount() > 0 ? null : wallet.getBalance();
     }
 }
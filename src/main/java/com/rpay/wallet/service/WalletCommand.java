@@ -0,0 +1,47 @@
+package com.rpay.wallet.service;
+
+import com.rpay.wallet.dto.TransactionRequest;
+import com.rpay.wallet.dto.TransferRequest;
+import com.rpay.wallet.model.TransactionType;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+
+/**
+ * Operação de carteira a ser aplicada em lote. O tipo é o da transação gerada para o usuário de
+ * origem (DEPOSIT, WITHDRAWAL ou TRANSFER_OUT), que também é a operação usada na idempotência.
+ */
+@Getter
+@Builder
+@AllArgsConstructor
+public class WalletCommand {
+
+    private final TransactionType type;
+
+    private final String userId;
+
+    private final String toUserId;
+
+    private final BigDecimal amount;
+
+    private final String description;
+
+    private final String idempotencyKey;
+
+    public static WalletCommand deposit(TransactionRequest request, String idempotencyKey) {
+        return new WalletCommand(TransactionType.DEPOSIT, request.getUserId(), null,
+                request.getAmount(), request.getDescription(), idempotencyKey);
+    }
+
+    public static WalletCommand withdraw(TransactionRequest request, String idempotencyKey) {
+        return new WalletCommand(TransactionType.WITHDRAWAL, request.getUserId(), null,
+                request.getAmount(), request.getDescription(), idempotencyKey);
+    }
+
+    public static WalletCommand transfer(TransferRequest request, String idempotencyKey) {
+        return new WalletCommand(TransactionType.TRANSFER_OUT, request.getFromUserId(), request.getToUserId(),
+                request.getAmount(), request.getDescription(), idempotencyKey);
+    }
+}
@@ -0,0 +1,156 @@
+package com.rpay.wallet.service;
+
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.model.Transaction;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Fila de comandos por carteira com um único consumidor (group commit). Os comandos de uma carteira
+ * são drenados em lotes e cada lote é aplicado em uma única transação: a carteira é travada uma vez,
+ * os saldos são calculados em memória na ordem de chegada e as transações são inseridas juntas.
+ */
+@Service
+public class WalletCommandQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(WalletCommandQueue.class);
+
+    private final IdempotencyService idempotencyService;
+    private final TransactionService transactionService;
+    private final int maxBatchSize;
+    private final ExecutorService drainers;
+
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    public WalletCommandQueue(IdempotencyService idempotencyService,
+                              TransactionService transactionService,
+                              WalletProperties walletProperties) {
+        this.idempotencyService = idempotencyService;
+        this.transactionService = transactionService;
+        this.maxBatchSize = walletProperties.getCommandQueue().getMaxBatchSize();
+        this.drainers = Executors.newFixedThreadPool(walletProperties.getCommandQueue().getDrainers(),
+                new CustomizableThreadFactory("wallet-queue-"));
+    }
+
+    /**
+     * Enfileira o comando e aguarda o commit do lote em que ele foi aplicado
+     */
+    public Transaction execute(WalletCommand command) {
+        try {
+            return submit(command).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Enfileira o comando na fila da carteira de origem
+     *
+     * @return Future completado com a transação após o commit, ou com o erro que rejeitou o comando
+     */
+    public CompletableFuture<Transaction> submit(WalletCommand command) {
+        QueuedCommand pending = new QueuedCommand(command);
+        boolean[] schedule = {false};
+
+        lanes.compute(command.getUserId(), (userId, lane) -> {
+            Lane current = lane != null ? lane : new Lane();
+            current.commands.add(pending);
+            if (!current.draining) {
+                current.draining = true;
+                schedule[0] = true;
+            }
+            return current;
+        });
+
+        if (schedule[0]) {
+            drainers.execute(() -> drain(command.getUserId()));
+        }
+        return pending.future;
+    }
+
+    private void drain(String userId) {
+        Lane lane = lanes.get(userId);
+        while (true) {
+            List<QueuedCommand> batch = new ArrayList<>();
+            QueuedCommand next;
+            while (batch.size() < maxBatchSize && (next = lane.commands.poll()) != null) {
+                batch.add(next);
+            }
+
+            if (batch.isEmpty()) {
+                // Remove a fila vazia; um submit concorrente recria a fila e agenda um novo consumidor
+                Lane remaining = lanes.computeIfPresent(userId,
+                        (id, current) -> current.commands.isEmpty() ? null : current);
+                if (remaining == null) {
+                    return;
+                }
+                continue;
+            }
+
+            commit(batch);
+        }
+    }
+
+    private void commit(List<QueuedCommand> batch) {
+        try {
+            List<CommandResult> results = idempotencyService.executeBatchWithIdempotency(
+                    batch.stream().map(QueuedCommand::command).toList(), transactionService::applyBatch);
+
+            for (int i = 0; i < batch.size(); i++) {
+                CommandResult result = results.get(i);
+                if (result.isSuccess()) {
+                    batch.get(i).future.complete(result.getTransaction());
+                } else {
+                    batch.get(i).future.completeExceptionally(result.getError());
+                }
+            }
+        } catch (RuntimeException e) {
+            if (batch.size() > 1) {
+                // Um comando derrubou o lote inteiro: aplica um a um para isolar a falha
+                logger.warn("Batch of {} commands failed, retrying one by one.", batch.size(), e);
+                batch.forEach(pending -> commit(List.of(pending)));
+            } else {
+                batch.get(0).future.completeExceptionally(e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        drainers.shutdown();
+    }
+
+    private static class Lane {
+
+        private final Queue<QueuedCommand> commands = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Só é lido e alterado dentro de lanes.compute, que serializa o acesso por carteira
+         */
+        private boolean draining;
+    }
+
+    private record QueuedCommand(WalletCommand command, CompletableFuture<Transaction> future) {
+
+        private QueuedCommand(WalletCommand command) {
+            this(command, new CompletableFuture<>());
+        }
+    }
+}
@@ -1,18 +1,34 @@
 package com.rpay.wallet.service;
 
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.config.WalletProperties.WriteMode;
+import com.rpay.wallet.dto.BatchItemResult;
 import com.rpay.wallet.dto.TransactionRequest;
 import com.rpay.wallet.dto.TransferRequest;
 import com.rpay.wallet.exception.ConflictException;
+import com.rpay.wallet.exception.CustomException;
 import com.rpay.wallet.exception.NotFoundException;
+import com.rpay.wallet.model.PendingCommand;
 import com.rpay.wallet.model.Transaction;
 import com.rpay.wallet.model.Wallet;
 import com.rpay.wallet.repository.WalletRepository;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 @Service
 public class WalletService {
@@ -20,13 +36,37 @@ public class WalletService {
     private final WalletRepository walletRepository;
     private final TransactionService transactionService;
     private final IdempotencyService idempotencyService;
+    private final ShardedBalanceService shardedBalanceService;
+    private final WalletCommandQueue walletCommandQueue;
+    private final WalletProperties walletProperties;
+    private final BulkDepositService bulkDepositService;
+    private final BalanceSeriesService balanceSeriesService;
+    private final PendingCommandService pendingCommandService;
+    private final IdempotencyInFlightRegistry idempotencyInFlightRegistry;
+    private final BalanceCache balanceCache;
 
     public WalletService(WalletRepository walletRepository,
                         TransactionService transactionService,
-                        IdempotencyService idempotencyService) {
+                        IdempotencyService idempotencyService,
+                        ShardedBalanceService shardedBalanceService,
+                        WalletCommandQueue walletCommandQueue,
+                        WalletProperties walletProperties,
+                        BulkDepositService bulkDepositService,
+                        BalanceSeriesService balanceSeriesService,
+                        PendingCommandService pendingCommandService,
+                        IdempotencyInFlightRegistry idempotencyInFlightRegistry,
+                        BalanceCache balanceCache) {
         this.walletRepository = walletRepository;
         this.transactionService = transactionService;
         this.idempotencyService = idempotencyService;
+        this.shardedBalanceService = shardedBalanceService;
+        this.walletCommandQueue = walletCommandQueue;
+        this.walletProperties = walletProperties;
+        this.bulkDepositService = bulkDepositService;
+        this.balanceSeriesService = balanceSeriesService;
+        this.pendingCommandService = pendingCommandService;
+        this.idempotencyInFlightRegistry = idempotencyInFlightRegistry;
+        this.balanceCache = balanceCache;
     }
 
     /**
@@ -41,57 +81,215 @@ public class WalletService {
     }
 
     /**
-     * Retorna o saldo atual da carteira
+     * Retorna o saldo atual da carteira. Carteiras não sharded são respondidas pelo cache de saldo sem usar
+     * uma conexão; em um miss, o saldo lido do banco (no pool de leitura) entra no cache com o last_seq da carteira.
      */
+    @Transactional(readOnly = true)
     public BigDecimal getBalance(String userId) {
+        boolean sharded = shardedBalanceService.isSharded(userId);
+        if (!sharded) {
+            Optional<BigDecimal> cached = balanceCache.get(userId);
+            if (cached.isPresent()) {
+                return cached.get();
+            }
+        }
+
         Wallet wallet = getWallet(userId);
+        if (wallet.getSlotCount() > 0) {
+            return shardedBalanceService.totalBalance(wallet);
+        }
+        if (!sharded) {
+            balanceCache.putAfterCommit(userId, wallet.getLastSeq(), wallet.getBalance());
+        }
         return wallet.getBalance();
     }
 
     /**
-     * Retorna o saldo histórico da carteira em um timestamp específico
+     * Define em quantos slots o saldo da carteira é distribuído (0 desativa o sharding)
+     */
+    public Wallet configureSlots(String userId, int slotCount) {
+        return shardedBalanceService.configureSlots(userId, slotCount);
+    }
+
+    /**
+     * Retorna o saldo histórico da carteira em um timestamp específico, lido no pool de leitura
      */
+    @Transactional(readOnly = true)
     public BigDecimal getHistoricalBalance(String userId, LocalDateTime timestamp) {
         return transactionService.getHistoricalBalance(userId, timestamp);
     }
 
+    /**
+     * Histórico de transações da carteira paginado pelo número de sequência
+     */
+    public List<Transaction> getTransactions(String userId, Integer slot, long afterSeq, int limit) {
+        return transactionService.getTransactions(userId, slot, afterSeq, limit);
+    }
+
+    /**
+     * Valida os parâmetros da série de saldos e devolve o saldo no seu início
+     */
+    public BigDecimal openBalanceSeries(String userId, LocalDateTime from, LocalDateTime to, Duration interval) {
+        return balanceSeriesService.open(userId, from, to, interval);
+    }
+
+    /**
+     * Escreve a série de saldos como um array JSON, a partir do saldo devolvido por openBalanceSeries
+     */
+    public void writeBalanceSeries(String userId, LocalDateTime from, LocalDateTime to, Duration interval,
+                                   BigDecimal opening, OutputStream output) throws IOException {
+        balanceSeriesService.write(userId, from, to, interval, opening, output);
+    }
+
     /**
      * Executa um depósito com controle de idempotência
      */
-    @Transactional
     public Transaction deposit(TransactionRequest request, String idempotencyKey) {
-        return idempotencyService.executeWithIdempotency(
-            idempotencyKey,
-            request.getUserId(),
-            "DEPOSIT",
-            () -> transactionService.performDeposit(request)
-        );
+        return idempotencyInFlightRegistry.execute(idempotencyKey, request.getUserId(), "DEPOSIT", () -> {
+            idempotencyService.replayIfCached(idempotencyKey, request.getUserId(), "DEPOSIT");
+            if (isQueued()) {
+                return walletCommandQueue.execute(WalletCommand.deposit(request, idempotencyKey));
+            }
+            return executeWithIdempotency(
+                idempotencyKey,
+                request.getUserId(),
+                "DEPOSIT",
+                () -> transactionService.performDeposit(request)
+            );
+        });
     }
 
     /**
      * Executa um saque com controle de idempotência
      */
-    @Transactional
     public Transaction withdraw(TransactionRequest request, String idempotencyKey) {
-        return idempotencyService.executeWithIdempotency(
-            idempotencyKey,
-            request.getUserId(),
-            "WITHDRAWAL",
-            () -> transactionService.performWithdraw(request)
-        );
+        return idempotencyInFlightRegistry.execute(idempotencyKey, request.getUserId(), "WITHDRAWAL", () -> {
+            idempotencyService.replayIfCached(idempotencyKey, request.getUserId(), "WITHDRAWAL");
+            if (isQueued()) {
+                return walletCommandQueue.execute(WalletCommand.withdraw(request, idempotencyKey));
+            }
+            return executeWithIdempotency(
+                idempotencyKey,
+                request.getUserId(),
+                "WITHDRAWAL",
+                () -> transactionService.performWithdraw(request)
+            );
+        });
     }
 
     /**
      * Executa uma transferência com controle de idempotência
      */
-    @Transactional
     public Transaction transfer(TransferRequest request, String idempotencyKey) {
-        return idempotencyService.executeWithIdempotency(
-            idempotencyKey,
-            request.getFromUserId(),
-            "TRANSFER_OUT",
-            () -> transactionService.performTransfer(request)
-        );
+        return idempotencyInFlightRegistry.execute(idempotencyKey, request.getFromUserId(), "TRANSFER_OUT", () -> {
+            idempotencyService.replayIfCached(idempotencyKey, request.getFromUserId(), "TRANSFER_OUT");
+            if (isQueued()) {
+                return walletCommandQueue.execute(WalletCommand.transfer(request, idempotencyKey));
+            }
+            return executeWithIdempotency(
+                idempotencyKey,
+                request.getFromUserId(),
+                "TRANSFER_OUT",
+                () -> transactionService.performTransfer(request)
+            );
+        });
+    }
+
+    /**
+     * Executa uma lista de transferências em uma única transação: as carteiras envolvidas são travadas uma
+     * vez, em ordem, e as transações são inseridas em lote. Cada item usa a chave de idempotência
+     * "{chave}:{posição}" e tem o seu próprio resultado; um item rejeitado não desfaz os demais.
+     */
+    public List<BatchItemResult> transferBatch(List<TransferRequest> requests, String idempotencyKey) {
+        List<WalletCommand> commands = IntStream.range(0, requests.size())
+                .mapToObj(index -> WalletCommand.transfer(requests.get(index),
+                        idempotencyKey != null ? idempotencyKey + ":" + index : null))
+                .toList();
+
+        List<CommandResult> results = idempotencyService.executeBatchWithIdempotency(
+                commands, transactionService::applyBatch);
+
+        return IntStream.range(0, results.size())
+                .mapToObj(index -> BatchItemResult.of(index, results.get(index)))
+                .toList();
+    }
+
+    /**
+     * Importa depósitos em NDJSON lidos de input, escrevendo o resultado de cada registro em output
+     */
+    public void depositBulk(InputStream input, OutputStream output, String idempotencyKey) throws IOException {
+        bulkDepositService.deposit(input, output, idempotencyKey);
+    }
+
+    /**
+     * Aceita a operação para execução assíncrona; o resultado é consultado depois pelo id do comando
+     */
+    public PendingCommand submit(WalletCommand command) {
+        return pendingCommandService.submit(command);
+    }
+
+    /**
+     * Retorna o estado de uma operação assíncrona
+     */
+    public PendingCommand getCommand(UUID id) {
+        return pendingCommandService.getCommand(id);
+    }
+
+    /**
+     * Executa a operação com controle de idempotência. Se ela for rejeitada, o erro é gravado na chave
+     * depois do rollback, para que as próximas tentativas recebam a mesma resposta
+     */
+    private Transaction executeWithIdempotency(String idempotencyKey,
+                                               String userId,
+                                               String operation,
+                                               Supplier<Transaction> transactionSupplier) {
+        try {
+            return retryOnConflict(() -> idempotencyService.executeWithIdempotency(
+                    idempotencyKey, userId, operation, transactionSupplier));
+        } catch (CustomException e) {
+            idempotencyService.recordFailure(idempotencyKey, userId, operation, e);
+            throw e;
+        }
+    }
+
+    /**
+     * No modo QUEUED a requisição não abre transação: ela só aguarda o commit do lote na fila da carteira
+     */
+    private boolean isQueued() {
+        return walletProperties.getWriteMode() == WriteMode.QUEUED;
+    }
+
+    /**
+     * No modo OPTIMISTIC repete a operação inteira (cada tentativa em uma nova transação) quando o commit
+     * falha por conflito de versão, com backoff exponencial sorteado; esgotadas as tentativas responde 409
+     */
+    private Transaction retryOnConflict(Supplier<Transaction> operation) {
+        if (walletProperties.getWriteMode() != WriteMode.OPTIMISTIC) {
+            return operation.get();
+        }
+
+        WalletProperties.Optimistic optimistic = walletProperties.getOptimistic();
+        long backoffCeiling = optimistic.getInitialBackoff().toMillis();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return operation.get();
+            } catch (OptimisticLockingFailureException e) {
+                if (attempt >= optimistic.getMaxAttempts()) {
+                    throw new ConflictException("Wallet was updated concurrently, please retry");
+                }
+                sleep(ThreadLocalRandom.current().nextLong(backoffCeiling + 1));
+                backoffCeiling = Math.min(backoffCeiling * 2, optimistic.getMaxBackoff().toMillis());
+            }
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConflictException("Wallet was updated concurrently, please retry");
+        }
     }
 
     private Wallet getWallet(String userId) {
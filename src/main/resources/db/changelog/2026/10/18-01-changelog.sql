@@ -0,0 +1,5 @@
+-- liquibase formatted sql
+
+-- changeset fabiosiqueira:1760745600000-1
+ALTER TABLE wallets
+    ADD CONSTRAINT ck_wallets_balance_non_negative CHECK (balance >= 0);
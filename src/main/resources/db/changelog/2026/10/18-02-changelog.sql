@@ -0,0 +1,20 @@
+-- liquibase formatted sql
+
+-- changeset fabiosiqueira:1760745600000-2
+ALTER TABLE wallets
+    ADD COLUMN slot_count INT DEFAULT 0 NOT NULL;
+
+-- changeset fabiosiqueira:1760745600000-3
+CREATE TABLE wallet_balance_slots
+(
+    id         BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+    user_id    VARCHAR(255)                            NOT NULL,
+    slot       INT                                     NOT NULL,
+    balance    DECIMAL(19, 2)                          NOT NULL,
+    updated_at TIMESTAMP WITHOUT TIME ZONE,
+    CONSTRAINT pk_wallet_balance_slots PRIMARY KEY (id),
+    CONSTRAINT ck_wallet_balance_slots_balance_non_negative CHECK (balance >= 0)
+);
+
+-- changeset fabiosiqueira:1760745600000-4
+CREATE UNIQUE INDEX uk_wallet_balance_slots_user_slot ON wallet_balance_slots (user_id, slot);
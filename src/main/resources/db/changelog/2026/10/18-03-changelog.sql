@@ -0,0 +1,5 @@
+-- liquibase formatted sql
+
+-- changeset fabiosiqueira:1760745600000-5
+ALTER TABLE wallets
+    ADD COLUMN version BIGINT DEFAULT 0 NOT NULL;
@@ -0,0 +1,24 @@
+-- liquibase formatted sql
+
+-- changeset fabiosiqueira:1760745600000-6
+CREATE TABLE pending_commands
+(
+    id              UUID                        NOT NULL,
+    type            VARCHAR(255)                NOT NULL,
+    user_id         VARCHAR(255)                NOT NULL,
+    to_user_id      VARCHAR(255),
+    amount          DECIMAL(19, 2)              NOT NULL,
+    description     VARCHAR(255),
+    idempotency_key VARCHAR(100),
+    status          VARCHAR(255)                NOT NULL,
+    transaction_id  UUID,
+    balance_after   DECIMAL(19, 2),
+    error_status    INT,
+    error           VARCHAR(255),
+    created_at      TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    processed_at    TIMESTAMP WITHOUT TIME ZONE,
+    CONSTRAINT pk_pending_commands PRIMARY KEY (id)
+);
+
+-- changeset fabiosiqueira:1760745600000-7
+CREATE INDEX idx_pending_commands_status_created_at ON pending_commands (status, created_at);
@@ -0,0 +1,15 @@
+-- liquibase formatted sql
+
+-- changeset fabiosiqueira:1760745600000-8
+ALTER TABLE idempotency_key
+    DROP CONSTRAINT pk_idempotency_key;
+
+ALTER TABLE idempotency_key
+    ADD CONSTRAINT pk_idempotency_key PRIMARY KEY ("key", user_id, operation);
+
+-- changeset fabiosiqueira:1760745600000-9
+ALTER TABLE idempotency_key
+    ALTER COLUMN reference_id DROP NOT NULL;
+
+-- changeset fabiosiqueira:1760745600000-10
+DROP INDEX idx_user_operation;
@@ -0,0 +1,8 @@
+-- liquibase formatted sql
+
+-- changeset fabiosiqueira:1760745600000-11
+ALTER TABLE idempotency_key
+    ADD COLUMN response_status INT;
+
+ALTER TABLE idempotency_key
+    ADD COLUMN response_body BYTEA;
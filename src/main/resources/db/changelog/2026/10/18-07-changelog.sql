@@ -0,0 +1,52 @@
+-- liquibase formatted sql
+
+-- changeset fabiosiqueira:1760745600000-12
+ALTER TABLE idempotency_key
+    ADD COLUMN created_on DATE;
+
+UPDATE idempotency_key
+SET created_on = CAST(created_at AS DATE);
+
+ALTER TABLE idempotency_key
+    ALTER COLUMN created_on SET NOT NULL;
+
+-- changeset fabiosiqueira:1760745600000-13 dbms:postgresql splitStatements:false
+ALTER TABLE idempotency_key RENAME TO idempotency_key_unpartitioned;
+
+ALTER TABLE idempotency_key_unpartitioned
+    RENAME CONSTRAINT pk_idempotency_key TO pk_idempotency_key_unpartitioned;
+
+CREATE TABLE idempotency_key
+(
+    "key"           VARCHAR(100)                NOT NULL,
+    user_id         VARCHAR(255)                NOT NULL,
+    operation       VARCHAR(255)                NOT NULL,
+    reference_id    VARCHAR(255),
+    response_status INT,
+    response_body   BYTEA,
+    created_at      TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    created_on      DATE                        NOT NULL,
+    CONSTRAINT pk_idempotency_key PRIMARY KEY ("key", user_id, operation, created_on)
+) PARTITION BY RANGE (created_on);
+
+DO
+$$
+    DECLARE
+        day DATE;
+    BEGIN
+        EXECUTE format('CREATE TABLE idempotency_key_legacy PARTITION OF idempotency_key FOR VALUES FROM (MINVALUE) TO (%L)',
+                       current_date);
+        FOR day IN SELECT CAST(generate_series(current_date, current_date + 3, INTERVAL '1 day') AS DATE)
+            LOOP
+                EXECUTE format('CREATE TABLE %I PARTITION OF idempotency_key FOR VALUES FROM (%L) TO (%L)',
+                               'idempotency_key_p' || to_char(day, 'YYYYMMDD'), day, day + 1);
+            END LOOP;
+    END
+$$;
+
+INSERT INTO idempotency_key ("key", user_id, operation, reference_id, response_status, response_body, created_at,
+                             created_on)
+SELECT "key", user_id, operation, reference_id, response_status, response_body, created_at, created_on
+FROM idempotency_key_unpartitioned;
+
+DROP TABLE idempotency_key_unpartitioned;
@@ -0,0 +1,42 @@
+-- liquibase formatted sql
+
+-- changeset fabiosiqueira:1760745600000-14
+ALTER TABLE idempotency_key
+    ADD COLUMN key_hash UUID;
+
+ALTER TABLE idempotency_key
+    ADD COLUMN operation_code SMALLINT;
+
+-- changeset fabiosiqueira:1760745600000-15 dbms:postgresql
+UPDATE idempotency_key
+SET key_hash       = CAST(md5(operation || ':' || octet_length(user_id) || ':' || user_id || "key") AS UUID),
+    operation_code = CASE operation
+                         WHEN 'DEPOSIT' THEN 1
+                         WHEN 'WITHDRAWAL' THEN 2
+                         WHEN 'TRANSFER_OUT' THEN 3
+        END;
+
+-- changeset fabiosiqueira:1760745600000-16
+ALTER TABLE idempotency_key
+    DROP CONSTRAINT pk_idempotency_key;
+
+ALTER TABLE idempotency_key
+    DROP COLUMN "key";
+
+ALTER TABLE idempotency_key
+    DROP COLUMN user_id;
+
+ALTER TABLE idempotency_key
+    DROP COLUMN operation;
+
+ALTER TABLE idempotency_key
+    RENAME COLUMN operation_code TO operation;
+
+ALTER TABLE idempotency_key
+    ALTER COLUMN key_hash SET NOT NULL;
+
+ALTER TABLE idempotency_key
+    ALTER COLUMN operation SET NOT NULL;
+
+ALTER TABLE idempotency_key
+    ADD CONSTRAINT pk_idempotency_key PRIMARY KEY (key_hash, created_on);
@@ -0,0 +1,11 @@
+-- liquibase formatted sql
+
+-- changeset fabiosiqueira:1760745600000-17 dbms:postgresql runInTransaction:false
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_transactions_from_user_created_at
+    ON transactions (from_user_id, created_at DESC) INCLUDE (balance_after);
+
+-- changeset fabiosiqueira:1760745600000-18 dbms:!postgresql
+CREATE INDEX idx_transactions_from_user_created_at ON transactions (from_user_id, created_at DESC);
+
+-- changeset fabiosiqueira:1760745600000-19
+DROP INDEX idx_from_user_id;
@@ -0,0 +1,21 @@
+-- liquibase formatted sql
+
+-- changeset fabiosiqueira:1760745600000-20
+CREATE TABLE balance_checkpoints
+(
+    user_id         VARCHAR(255)                NOT NULL,
+    checkpoint_date DATE                        NOT NULL,
+    balance         DECIMAL(19, 2)              NOT NULL,
+    created_at      TIMESTAMP WITHOUT TIME ZONE,
+    CONSTRAINT pk_balance_checkpoints PRIMARY KEY (user_id, checkpoint_date)
+);
+
+-- changeset fabiosiqueira:1760745600000-21
+CREATE TABLE balance_checkpoint_watermark
+(
+    id                   INT  NOT NULL,
+    checkpointed_through DATE,
+    CONSTRAINT pk_balance_checkpoint_watermark PRIMARY KEY (id)
+);
+
+INSERT INTO balance_checkpoint_watermark (id, checkpointed_through) VALUES (1, NULL);
@@ -0,0 +1,36 @@
+-- liquibase formatted sql
+
+-- changeset fabiosiqueira:1760745600000-22
+ALTER TABLE wallets
+    ADD COLUMN last_seq BIGINT DEFAULT 0 NOT NULL;
+
+ALTER TABLE transactions
+    ADD COLUMN seq BIGINT;
+
+-- changeset fabiosiqueira:1760745600000-23 dbms:postgresql
+-- Numera o ledger existente de cada carteira na ordem em que foi gravado
+UPDATE transactions t
+   SET seq = n.seq
+  FROM (SELECT id, ROW_NUMBER() OVER (PARTITION BY from_user_id ORDER BY created_at, id) AS seq
+          FROM transactions) n
+ WHERE t.id = n.id;
+
+UPDATE wallets w
+   SET last_seq = COALESCE((SELECT MAX(t.seq) FROM transactions t WHERE t.from_user_id = w.user_id), 0);
+
+-- changeset fabiosiqueira:1760745600000-24
+ALTER TABLE transactions
+    ALTER COLUMN seq SET NOT NULL;
+
+CREATE UNIQUE INDEX uk_transactions_from_user_seq ON transactions (from_user_id, seq);
+
+-- changeset fabiosiqueira:1760745600000-25 dbms:postgresql runInTransaction:false
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_transactions_from_user_created_at_seq
+    ON transactions (from_user_id, created_at DESC, seq DESC) INCLUDE (balance_after);
+
+DROP INDEX CONCURRENTLY IF EXISTS idx_transactions_from_user_created_at;
+
+-- changeset fabiosiqueira:1760745600000-26 dbms:!postgresql
+CREATE INDEX idx_transactions_from_user_created_at_seq ON transactions (from_user_id, created_at DESC, seq DESC);
+
+DROP INDEX idx_transactions_from_user_created_at;
@@ -0,0 +1,20 @@
+-- liquibase formatted sql
+
+-- changeset fabiosiqueira:1760745600000-27
+-- Comandos repetidos com a mesma chave aceitos antes do índice: a chave fica no comando ainda pendente, ou no
+-- mais antigo, e sai dos já processados (o resultado deles continua no registro de idempotência)
+UPDATE pending_commands p
+   SET idempotency_key = NULL
+ WHERE p.status <> 'PENDING'
+   AND EXISTS (SELECT 1
+                 FROM pending_commands q
+                WHERE q.idempotency_key = p.idempotency_key
+                  AND q.user_id = p.user_id
+                  AND q.type = p.type
+                  AND q.id <> p.id
+                  AND (q.status = 'PENDING'
+                       OR q.created_at < p.created_at
+                       OR (q.created_at = p.created_at AND q.id < p.id)));
+
+-- changeset fabiosiqueira:1760745600000-28
+CREATE UNIQUE INDEX uk_pending_commands_idempotency ON pending_commands (idempotency_key, user_id, type);
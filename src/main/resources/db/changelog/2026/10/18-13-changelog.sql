@@ -0,0 +1,20 @@
+-- liquibase formatted sql
+
+-- changeset fabiosiqueira:1760745600000-29
+-- Créditos em slot numeram o ledger pelo contador do próprio slot, sem travar a linha da carteira
+ALTER TABLE wallet_balance_slots
+    ADD COLUMN last_seq BIGINT DEFAULT 0 NOT NULL;
+
+ALTER TABLE transactions
+    ADD COLUMN slot INT;
+
+-- changeset fabiosiqueira:1760745600000-30 dbms:postgresql runInTransaction:false
+CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS uk_transactions_from_user_slot_seq
+    ON transactions (from_user_id, slot, seq) NULLS NOT DISTINCT;
+
+DROP INDEX CONCURRENTLY IF EXISTS uk_transactions_from_user_seq;
+
+-- changeset fabiosiqueira:1760745600000-31 dbms:!postgresql
+CREATE UNIQUE NULLS NOT DISTINCT INDEX uk_transactions_from_user_slot_seq ON transactions (from_user_id, slot, seq);
+
+DROP INDEX uk_transactions_from_user_seq;
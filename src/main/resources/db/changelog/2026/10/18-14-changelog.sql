@@ -0,0 +1,6 @@
+-- liquibase formatted sql
+
+-- changeset fabiosiqueira:1760745600000-32
+-- Tentativas do poller que falharam por erro transitório; o comando continua PENDING até wallet.async.max-attempts
+ALTER TABLE pending_commands
+    ADD COLUMN attempts INT DEFAULT 0 NOT NULL;
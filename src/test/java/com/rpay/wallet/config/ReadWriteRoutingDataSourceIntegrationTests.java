@@ -0,0 +1,160 @@
+package com.rpay.wallet.config;
+
+import com.rpay.wallet.ApplicationTests;
+import com.rpay.wallet.config.ReadWriteRoutingDataSource.Route;
+import com.rpay.wallet.dto.TransactionRequest;
+import com.rpay.wallet.exception.NotFoundException;
+import com.rpay.wallet.service.PendingCommandService;
+import com.rpay.wallet.service.WalletService;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Verifica qual pool serve cada transação. Os dois pools são trocados por spies que registram cada conexão
+ * entregue à thread do teste; as conexões pedidas pelos jobs agendados em outras threads são ignoradas.
+ */
+class ReadWriteRoutingDataSourceIntegrationTests extends ApplicationTests {
+
+    private static final ThreadLocal<List<Route>> ROUTES = new ThreadLocal<>();
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private PendingCommandService pendingCommandService;
+
+    private final List<Route> routes = new ArrayList<>();
+
+    @TestConfiguration
+    static class RouteRecordingConfig {
+
+        /**
+         * O spy é criado com a resposta padrão já definida: stubbing depois da subida do contexto disputaria o
+         * spy com os jobs agendados
+         */
+        @Bean
+        static BeanPostProcessor routeRecordingPostProcessor() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (!(bean instanceof HikariDataSource dataSource)) {
+                        return bean;
+                    }
+                    Route route = switch (beanName) {
+                        case "readDataSource" -> Route.READ;
+                        case "writeDataSource" -> Route.WRITE;
+                        default -> null;
+                    };
+                    if (route == null) {
+                        return bean;
+                    }
+                    return mock(HikariDataSource.class, withSettings().spiedInstance(dataSource)
+                            .defaultAnswer(invocation -> {
+                                List<Route> recorded = ROUTES.get();
+                                if (recorded != null && invocation.getMethod().getName().equals("getConnection")) {
+                                    recorded.add(route);
+                                }
+                                return invocation.callRealMethod();
+                            }));
+                }
+            };
+        }
+    }
+
+    @BeforeEach
+    void recordRoutes() {
+        ROUTES.set(routes);
+    }
+
+    @AfterEach
+    void stopRecordingRoutes() {
+        ROUTES.remove();
+    }
+
+    @Test
+    void readOnlyTransaction_shouldUseReadPool() {
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+
+        readOnly.executeWithoutResult(status -> jdbcTemplate.queryForObject("SELECT COUNT(*) FROM wallets", Long.class));
+
+        assertEquals(List.of(Route.READ), routes);
+    }
+
+    @Test
+    void writeTransaction_shouldUseWritePool() {
+        new TransactionTemplate(transactionManager)
+                .executeWithoutResult(status -> jdbcTemplate.queryForObject("SELECT COUNT(*) FROM wallets", Long.class));
+
+        assertEquals(List.of(Route.WRITE), routes);
+    }
+
+    @Test
+    void balanceReads_shouldUseReadPool() {
+        walletService.createWallet("routing_user_001");
+        try {
+            routes.clear();
+
+            walletService.getBalance("routing_user_001");
+            walletService.getHistoricalBalance("routing_user_001", LocalDateTime.now().plusDays(1));
+
+            assertEquals(List.of(Route.READ, Route.READ), routes);
+        } finally {
+            jdbcTemplate.update("DELETE FROM wallets WHERE user_id = 'routing_user_001'");
+        }
+    }
+
+    @Test
+    void getCommand_shouldUseWritePool() {
+        assertThrows(NotFoundException.class, () -> pendingCommandService.getCommand(UUID.randomUUID()));
+
+        assertEquals(List.of(Route.WRITE), routes);
+    }
+
+    @Test
+    void writeAfterReadOnlyTransaction_shouldUseWritePool_whenInSameRequest() {
+        walletService.createWallet("routing_user_002");
+        try {
+            routes.clear();
+
+            walletService.getBalance("routing_user_002");
+            assertEquals(List.of(Route.READ), routes);
+
+            routes.clear();
+            walletService.deposit(new TransactionRequest("routing_user_002", BigDecimal.TEN, null), null);
+
+            assertFalse(routes.isEmpty());
+            assertEquals(List.of(), routes.stream().filter(route -> route != Route.WRITE).toList());
+        } finally {
+            jdbcTemplate.update("DELETE FROM transactions WHERE from_user_id = 'routing_user_002'");
+            jdbcTemplate.update("DELETE FROM wallets WHERE user_id = 'routing_user_002'");
+        }
+    }
+}
@@ -1,22 +1,72 @@
 package com.rpay.wallet.controller;
 
+import com.jayway.jsonpath.JsonPath;
 import com.rpay.wallet.ApplicationTests;
+import com.rpay.wallet.service.BalanceCheckpointService;
+import com.rpay.wallet.dto.BatchItemResult;
+import com.rpay.wallet.dto.TransactionRequest;
+import com.rpay.wallet.dto.TransferRequest;
+import com.rpay.wallet.model.Transaction;
+import com.rpay.wallet.repository.DatabasePlatform;
+import com.rpay.wallet.service.ShardedBalanceService;
+import com.rpay.wallet.service.WalletService;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @Transactional
 class WalletControllerIntegrationTests extends ApplicationTests {
 
+    @Autowired
+    private ShardedBalanceService shardedBalanceService;
+
+    @Autowired
+    private DatabasePlatform databasePlatform;
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private BalanceCheckpointService balanceCheckpointService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @Test
     void createWallet_shouldCreateWalletSuccessfully() throws Exception {
 
@@ -93,6 +143,175 @@ class WalletControllerIntegrationTests extends ApplicationTests {
                 .andExpect(jsonPath("$.instance").isNotEmpty());
     }
 
+    @Test
+    void getHistoricalBalance_shouldUseCheckpoints_whenOlderTransactionsWereArchived() throws Exception {
+        insertWallet("userCheckpoint", LocalDateTime.now().minusDays(10));
+
+        LocalDate firstDay = LocalDate.now().minusDays(3);
+        LocalDate secondDay = LocalDate.now().minusDays(2);
+        insertTransaction("userCheckpoint", 1, firstDay.atTime(10, 0), "30.00");
+        insertTransaction("userCheckpoint", 2, firstDay.atTime(12, 0), "50.00");
+        insertTransaction("userCheckpoint", 3, secondDay.atTime(10, 0), "20.00");
+
+        balanceCheckpointService.writeCheckpoints();
+
+        // Arquiva as transações do primeiro dia, que já estão cobertas pelo checkpoint
+        jdbcTemplate.update("DELETE FROM transactions WHERE from_user_id = 'userCheckpoint' AND created_at < ?",
+                secondDay.atStartOfDay());
+
+        mockMvc.perform(get("/api/wallets/userCheckpoint/balance/historical")
+                        .param("timestamp", secondDay.atTime(9, 0).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.balance").value(50.00));
+
+        // Dentro do dia arquivado só resta o saldo de fim de dia
+        mockMvc.perform(get("/api/wallets/userCheckpoint/balance/historical")
+                        .param("timestamp", firstDay.atTime(11, 0).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)))
+                .andExpect(status().isUnprocessableEntity())
+                .andExpect(jsonPath("$.detail").value(
+                        "Transactions of that day were archived; only its end-of-day balance is available"));
+
+        mockMvc.perform(get("/api/wallets/userCheckpoint/balance/historical")
+                        .param("timestamp", secondDay.atTime(11, 0).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.balance").value(20.00));
+
+        mockMvc.perform(get("/api/wallets/userCheckpoint/balance/historical")
+                        .param("timestamp", LocalDateTime.now().minusHours(1).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.balance").value(20.00));
+    }
+
+    @Test
+    void getHistoricalBalance_shouldSumSlotCreditsFromCheckpoint_whenTransactionsHaveNoBalanceAfter() throws Exception {
+        insertWallet("userShardedCheckpoint", LocalDateTime.now().minusDays(10));
+
+        LocalDate firstDay = LocalDate.now().minusDays(3);
+        LocalDate secondDay = LocalDate.now().minusDays(2);
+        insertTransaction("userShardedCheckpoint", 1, firstDay.atTime(10, 0), "100.00");
+        insertSlotCredit("userShardedCheckpoint", 0, 1, secondDay.atTime(10, 0), "10.00");
+        insertSlotCredit("userShardedCheckpoint", 1, 1, secondDay.atTime(11, 0), "20.00");
+
+        balanceCheckpointService.writeCheckpoints();
+
+        assertEquals(0, new BigDecimal("130.00").compareTo(jdbcTemplate.queryForObject(
+                "SELECT balance FROM balance_checkpoints WHERE user_id = 'userShardedCheckpoint' AND checkpoint_date = ?",
+                BigDecimal.class, secondDay)));
+        mockMvc.perform(get("/api/wallets/userShardedCheckpoint/balance/historical")
+                        .param("timestamp", secondDay.atTime(10, 30).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.balance").value(110.00));
+    }
+
+    @Test
+    void getBalanceSeries_shouldReturnBalanceAtEachInterval() throws Exception {
+        // A série é escrita em outra thread, fora da transação do teste: os dados precisam estar commitados
+        TransactionTemplate committed = new TransactionTemplate(transactionManager);
+        committed.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        LocalDate day = LocalDate.now().minusDays(3);
+        committed.executeWithoutResult(status -> {
+            insertWallet("userSeries", LocalDateTime.now().minusDays(10));
+            insertTransaction("userSeries", 1, day.atTime(9, 30), "30.00");
+            insertTransaction("userSeries", 2, day.atTime(11, 0), "50.00");
+        });
+
+        try {
+            mockMvc.perform(get("/api/wallets/userSeries/balance/series")
+                            .param("from", day.atTime(9, 0).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME))
+                            .param("to", day.atTime(12, 0).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME))
+                            .param("interval", "PT1H"))
+                    .andExpect(request().asyncStarted())
+                    .andDo(result -> mockMvc.perform(asyncDispatch(result))
+                            .andExpect(status().isOk())
+                            .andExpect(jsonPath("$.length()").value(4))
+                            .andExpect(jsonPath("$[0].balance").value(0))
+                            .andExpect(jsonPath("$[1].balance").value(30.00))
+                            .andExpect(jsonPath("$[2].balance").value(50.00))
+                            .andExpect(jsonPath("$[3].timestamp").value(day.atTime(12, 0).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)))
+                            .andExpect(jsonPath("$[3].balance").value(50.00)));
+        } finally {
+            committed.executeWithoutResult(status -> {
+                jdbcTemplate.update("DELETE FROM transactions WHERE from_user_id = 'userSeries'");
+                jdbcTemplate.update("DELETE FROM wallets WHERE user_id = 'userSeries'");
+            });
+        }
+    }
+
+    @Test
+    void getBalanceSeries_shouldReturnNotFound_whenWalletDoesNotExist() throws Exception {
+        mockMvc.perform(get("/api/wallets/nonexistent/balance/series")
+                        .param("from", LocalDateTime.now().minusDays(1).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME))
+                        .param("to", LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME))
+                        .param("interval", "PT1H"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void getTransactions_shouldPageLedgerBySequenceNumber() throws Exception {
+        mockMvc.perform(post("/api/wallets")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"userSeqA\"}"))
+                .andExpect(status().isCreated());
+        mockMvc.perform(post("/api/wallets")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"userSeqB\"}"))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(post("/api/wallets/deposit")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"userSeqA\",\"amount\":100.00}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.seq").value(1));
+        mockMvc.perform(post("/api/wallets/transfer")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"fromUserId\":\"userSeqA\",\"toUserId\":\"userSeqB\",\"amount\":30.00}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.seq").value(2));
+        mockMvc.perform(post("/api/wallets/withdraw")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"userSeqA\",\"amount\":10.00}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.seq").value(3));
+
+        mockMvc.perform(get("/api/wallets/userSeqA/transactions").param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].seq").value(1))
+                .andExpect(jsonPath("$[1].seq").value(2))
+                .andExpect(jsonPath("$[1].type").value("TRANSFER_OUT"));
+
+        mockMvc.perform(get("/api/wallets/userSeqA/transactions").param("afterSeq", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].seq").value(3))
+                .andExpect(jsonPath("$[0].type").value("WITHDRAWAL"));
+
+        mockMvc.perform(get("/api/wallets/userSeqB/transactions"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].seq").value(1))
+                .andExpect(jsonPath("$[0].type").value("TRANSFER_IN"));
+
+        mockMvc.perform(get("/api/wallets/nonexistent/transactions"))
+                .andExpect(status().isNotFound());
+    }
+
+    private void insertWallet(String userId, LocalDateTime createdAt) {
+        jdbcTemplate.update("INSERT INTO wallets (user_id, balance, created_at, updated_at) VALUES (?, 0, ?, ?)",
+                userId, createdAt, createdAt);
+    }
+
+    private void insertSlotCredit(String userId, int slot, long seq, LocalDateTime createdAt, String amount) {
+        jdbcTemplate.update("INSERT INTO transactions (id, from_user_id, type, amount, slot, seq, created_at) "
+                        + "VALUES (?, ?, 'DEPOSIT', ?, ?, ?, ?)",
+                UUID.randomUUID(), userId, new BigDecimal(amount), slot, seq, createdAt);
+    }
+
+    private void insertTransaction(String userId, long seq, LocalDateTime createdAt, String balanceAfter) {
+        jdbcTemplate.update("INSERT INTO transactions (id, from_user_id, type, amount, balance_after, seq, created_at) "
+                        + "VALUES (?, ?, 'DEPOSIT', 10.00, ?, ?, ?)",
+                UUID.randomUUID(), userId, new BigDecimal(balanceAfter), seq, createdAt);
+    }
+
     @Test
     void deposit_shouldAddFundsToWallet() throws Exception {
         mockMvc.perform(post("/api/wallets")
@@ -307,6 +526,7 @@ class WalletControllerIntegrationTests extends ApplicationTests {
                         .header("Idempotency-Key", idempotencyKey)
                         .content("{\"userId\":\"idempotent_user_002\",\"amount\":999.99,\"description\":\"Duplicate attempt\"}"))
                 .andExpect(status().isCreated())
+                .andExpect(header().string(CustomControllerAdvice.IDEMPOTENT_REPLAYED, "true"))
                 .andExpect(jsonPath("$.id").value(extractedId))
                 .andExpect(jsonPath("$.amount").value(150.00)) // Deve retornar o valor original
                 .andExpect(jsonPath("$.description").value("Original deposit")); // Deve retornar a descrição original
@@ -527,4 +747,339 @@ class WalletControllerIntegrationTests extends ApplicationTests {
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.balance").value(75.00));
     }
+
+    @Test
+    void configureSlots_shouldKeepBalanceAcrossSlotsAndSweepOnWithdraw() throws Exception {
+        mockMvc.perform(post("/api/wallets")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"sharded_user_008\"}"))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(post("/api/wallets/deposit")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"sharded_user_008\",\"amount\":100.00}"))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(put("/api/wallets/sharded_user_008/slots")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"slotCount\":4}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.slotCount").value(4));
+        shardedBalanceService.refreshShardedWallets();
+
+        mockMvc.perform(post("/api/wallets/deposit")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"sharded_user_008\",\"amount\":50.00}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.balanceAfter").doesNotExist());
+
+        mockMvc.perform(get("/api/wallets/sharded_user_008/balance"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.balance").value(150.00));
+
+        // 50.00 estão em um slot; o saque precisa varrer os slots para a carteira
+        mockMvc.perform(post("/api/wallets/withdraw")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"sharded_user_008\",\"amount\":130.00}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.balanceAfter").doesNotExist());
+
+        // Sem balance_after, o saldo histórico soma as variações das transações
+        mockMvc.perform(get("/api/wallets/sharded_user_008/balance/historical")
+                        .param("timestamp", LocalDateTime.now().plusMinutes(1).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.balance").value(20.00));
+
+        mockMvc.perform(put("/api/wallets/sharded_user_008/slots")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"slotCount\":0}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.balance").value(20.00));
+    }
+
+    @Test
+    void getTransactions_shouldPageSlotCreditsBySlotSequence() throws Exception {
+        mockMvc.perform(post("/api/wallets")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"sharded_user_023\"}"))
+                .andExpect(status().isCreated());
+        mockMvc.perform(post("/api/wallets/deposit")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"sharded_user_023\",\"amount\":100.00}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.seq").value(1));
+
+        mockMvc.perform(put("/api/wallets/sharded_user_023/slots")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"slotCount\":2}"))
+                .andExpect(status().isOk());
+        shardedBalanceService.refreshShardedWallets();
+
+        // Créditos em slot seguem a sequência do slot; a linha da carteira continua a dela
+        mockMvc.perform(post("/api/wallets/deposit")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"sharded_user_023\",\"amount\":50.00}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.slot").value(0))
+                .andExpect(jsonPath("$.seq").value(1));
+        mockMvc.perform(post("/api/wallets/withdraw")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"sharded_user_023\",\"amount\":120.00}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.seq").value(2));
+
+        // Sem slot, a listagem deixaria os créditos em slot de fora
+        mockMvc.perform(get("/api/wallets/sharded_user_023/transactions"))
+                .andExpect(status().isUnprocessableEntity())
+                .andExpect(jsonPath("$.detail").value(
+                        "Wallet has slot credits with their own sequence; list each slot with the slot parameter"));
+        mockMvc.perform(get("/api/wallets/sharded_user_023/transactions").param("slot", "0"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].seq").value(1))
+                .andExpect(jsonPath("$[0].amount").value(50.00));
+
+        // Um slot removido e criado de novo continua a sua sequência
+        mockMvc.perform(put("/api/wallets/sharded_user_023/slots")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"slotCount\":0}"))
+                .andExpect(status().isOk());
+        mockMvc.perform(put("/api/wallets/sharded_user_023/slots")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"slotCount\":1}"))
+                .andExpect(status().isOk());
+        shardedBalanceService.refreshShardedWallets();
+        mockMvc.perform(post("/api/wallets/deposit")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"sharded_user_023\",\"amount\":5.00}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.slot").value(0))
+                .andExpect(jsonPath("$.seq").value(2));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void deposit_shouldNotWaitForConcurrentSlotCredit_whenWalletIsSharded() throws Exception {
+        // O H2 não tem SKIP LOCKED: lá o segundo crédito esperaria o slot travado pelo primeiro
+        assumeTrue(databasePlatform.isPostgres());
+        insertWallet("sharded_user_024", LocalDateTime.now());
+        shardedBalanceService.configureSlots("sharded_user_024", 2);
+
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        CountDownLatch credited = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // O primeiro crédito fica com a transação aberta, segurando o seu slot até o commit
+            Future<Transaction> first = executor.submit(() -> template.execute(status -> {
+                Transaction transaction = walletService.deposit(
+                        new TransactionRequest("sharded_user_024", BigDecimal.TEN, null), null);
+                credited.countDown();
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return transaction;
+            }));
+            assertTrue(credited.await(10, TimeUnit.SECONDS));
+
+            // O segundo usa o outro slot e commita sem esperar o primeiro
+            Transaction second = executor.submit(() -> walletService.deposit(
+                    new TransactionRequest("sharded_user_024", BigDecimal.ONE, null), null)).get(5, TimeUnit.SECONDS);
+            release.countDown();
+            Transaction firstTransaction = first.get(10, TimeUnit.SECONDS);
+
+            assertNotEquals(firstTransaction.getSlot(), second.getSlot());
+            assertEquals(1L, firstTransaction.getSeq());
+            assertEquals(1L, second.getSeq());
+            assertEquals(0L, jdbcTemplate.queryForObject(
+                    "SELECT last_seq FROM wallets WHERE user_id = 'sharded_user_024'", Long.class));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            jdbcTemplate.update("DELETE FROM transactions WHERE from_user_id = 'sharded_user_024'");
+            jdbcTemplate.update("DELETE FROM wallet_balance_slots WHERE user_id = 'sharded_user_024'");
+            jdbcTemplate.update("DELETE FROM wallets WHERE user_id = 'sharded_user_024'");
+        }
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void getHistoricalBalance_shouldIncludeConcurrentSlotCredits_whenWalletIsSharded() throws Exception {
+        // O H2 não tem SKIP LOCKED: lá o segundo crédito esperaria o slot travado pelo primeiro
+        assumeTrue(databasePlatform.isPostgres());
+        insertWallet("sharded_user_025", LocalDateTime.now());
+        walletService.deposit(new TransactionRequest("sharded_user_025", new BigDecimal("100.00"), null), null);
+        shardedBalanceService.configureSlots("sharded_user_025", 2);
+
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        CountDownLatch credited = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // Os dois créditos ficam em slots diferentes e nenhum vê o outro antes de commitar
+            Future<Transaction> first = executor.submit(() -> template.execute(status -> {
+                Transaction transaction = walletService.deposit(
+                        new TransactionRequest("sharded_user_025", new BigDecimal("10.00"), null), null);
+                credited.countDown();
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return transaction;
+            }));
+            assertTrue(credited.await(10, TimeUnit.SECONDS));
+            executor.submit(() -> walletService.deposit(
+                    new TransactionRequest("sharded_user_025", new BigDecimal("20.00"), null), null)).get(5, TimeUnit.SECONDS);
+            release.countDown();
+            first.get(10, TimeUnit.SECONDS);
+
+            assertEquals(0, new BigDecimal("130.00").compareTo(
+                    walletService.getHistoricalBalance("sharded_user_025", LocalDateTime.now())));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            jdbcTemplate.update("DELETE FROM transactions WHERE from_user_id = 'sharded_user_025'");
+            jdbcTemplate.update("DELETE FROM wallet_balance_slots WHERE user_id = 'sharded_user_025'");
+            jdbcTemplate.update("DELETE FROM wallets WHERE user_id = 'sharded_user_025'");
+        }
+    }
+
+    @Test
+    void configureSlots_shouldReturnUnprocessableEntity_whenSlotCountAboveLimit() throws Exception {
+        mockMvc.perform(post("/api/wallets")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"sharded_user_009\"}"))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(put("/api/wallets/sharded_user_009/slots")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"slotCount\":1000}"))
+                .andExpect(status().isUnprocessableEntity());
+    }
+
+    @Test
+    void transferBatch_shouldApplyEachTransferAndReportFailuresPerItem() throws Exception {
+        for (String userId : new String[]{"treasury808", "payee808a", "payee808b"}) {
+            mockMvc.perform(post("/api/wallets")
+                            .contentType(APPLICATION_JSON)
+                            .content("{\"userId\":\"" + userId + "\"}"))
+                    .andExpect(status().isCreated());
+        }
+
+        mockMvc.perform(post("/api/wallets/deposit")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"treasury808\",\"amount\":100.00}"))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(post("/api/wallets/transfers/batch")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"transfers\":["
+                                + "{\"fromUserId\":\"treasury808\",\"toUserId\":\"payee808a\",\"amount\":60.00},"
+                                + "{\"fromUserId\":\"treasury808\",\"toUserId\":\"payee808b\",\"amount\":60.00},"
+                                + "{\"fromUserId\":\"treasury808\",\"toUserId\":\"payee808b\",\"amount\":40.00}]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value(201))
+                .andExpect(jsonPath("$[0].transaction.balanceAfter").value(40.00))
+                .andExpect(jsonPath("$[1].status").value(422))
+                .andExpect(jsonPath("$[1].error").value("Insufficient funds"))
+                .andExpect(jsonPath("$[2].status").value(201))
+                .andExpect(jsonPath("$[2].transaction.balanceAfter").value(0));
+
+        mockMvc.perform(get("/api/wallets/payee808b/balance"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.balance").value(40.00));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void transferBatch_shouldNotDeadlock_withOppositeSingleTransfers() throws Exception {
+        // "B-lock808" vem antes de "a-lock808" em String.compareTo, mas não na collation padrão do PostgreSQL
+        for (String userId : new String[]{"a-lock808", "B-lock808"}) {
+            insertWallet(userId, LocalDateTime.now());
+            jdbcTemplate.update("UPDATE wallets SET balance = 1000.00 WHERE user_id = ?", userId);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> batches = executor.submit(() -> {
+                for (int i = 0; i < 50; i++) {
+                    List<BatchItemResult> results = walletService.transferBatch(List.of(
+                            new TransferRequest("a-lock808", "B-lock808", BigDecimal.ONE, null)), null);
+                    assertEquals(201, results.get(0).getStatus());
+                }
+            });
+            Future<?> transfers = executor.submit(() -> {
+                for (int i = 0; i < 50; i++) {
+                    walletService.transfer(new TransferRequest("B-lock808", "a-lock808", BigDecimal.ONE, null), null);
+                }
+            });
+            batches.get(30, TimeUnit.SECONDS);
+            transfers.get(30, TimeUnit.SECONDS);
+
+            for (String userId : new String[]{"a-lock808", "B-lock808"}) {
+                assertEquals(0, new BigDecimal("1000.00").compareTo(jdbcTemplate.queryForObject(
+                        "SELECT balance FROM wallets WHERE user_id = ?", BigDecimal.class, userId)));
+            }
+        } finally {
+            executor.shutdownNow();
+            jdbcTemplate.update("DELETE FROM transactions WHERE from_user_id IN ('a-lock808', 'B-lock808')");
+            jdbcTemplate.update("DELETE FROM wallets WHERE user_id IN ('a-lock808', 'B-lock808')");
+        }
+    }
+
+    @Test
+    void deposit_shouldAcceptCommand_whenRespondAsyncIsPreferred() throws Exception {
+        mockMvc.perform(post("/api/wallets")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"user910\"}"))
+                .andExpect(status().isCreated());
+
+        String response = mockMvc.perform(post("/api/wallets/deposit")
+                        .header("Prefer", "respond-async")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"user910\",\"amount\":25.00}"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.id").isNotEmpty())
+                .andExpect(jsonPath("$.status").value("PENDING"))
+                .andReturn().getResponse().getContentAsString();
+        String commandId = JsonPath.read(response, "$.id");
+
+        mockMvc.perform(get("/api/wallets/commands/" + commandId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.type").value("DEPOSIT"))
+                .andExpect(jsonPath("$.userId").value("user910"));
+    }
+
+    @Test
+    void deposit_shouldReturnAcceptedCommand_whenAsyncSubmitIsRetriedWithSameIdempotencyKey() throws Exception {
+        mockMvc.perform(post("/api/wallets")
+                        .contentType(APPLICATION_JSON)
+                        .content("{\"userId\":\"user911\"}"))
+                .andExpect(status().isCreated());
+
+        String[] commandIds = new String[2];
+        for (int i = 0; i < 2; i++) {
+            String response = mockMvc.perform(post("/api/wallets/deposit")
+                            .header("Prefer", "respond-async")
+                            .header("Idempotency-Key", "async-retry-911")
+                            .contentType(APPLICATION_JSON)
+                            .content("{\"userId\":\"user911\",\"amount\":25.00}"))
+                    .andExpect(status().isAccepted())
+                    .andReturn().getResponse().getContentAsString();
+            commandIds[i] = JsonPath.read(response, "$.id");
+        }
+
+        assertEquals(commandIds[0], commandIds[1]);
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM pending_commands WHERE user_id = 'user911'", Integer.class));
+    }
+
+    @Test
+    void getCommand_shouldReturnNotFound_whenCommandDoesNotExist() throws Exception {
+        mockMvc.perform(get("/api/wallets/commands/" + UUID.randomUUID()))
+                .andExpect(status().isNotFound());
+    }
 }
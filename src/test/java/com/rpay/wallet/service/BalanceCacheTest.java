@@ -0,0 +1,44 @@
+package com.rpay.wallet.service;
+
+import com.rpay.wallet.config.WalletProperties;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BalanceCacheTest extends CacheTestSupport {
+
+    private final BalanceCache balanceCache = new BalanceCache(walletProperties, meterRegistry);
+
+    @Test
+    void putAfterCommit_shouldKeepBalanceWithHighestSeq() {
+        balanceCache.putAfterCommit("user123", 5, new BigDecimal("50.00"));
+        balanceCache.putAfterCommit("user123", 4, new BigDecimal("40.00"));
+        assertEquals(new BigDecimal("50.00"), balanceCache.get("user123").orElseThrow());
+
+        balanceCache.putAfterCommit("user123", 6, new BigDecimal("60.00"));
+        assertEquals(new BigDecimal("60.00"), balanceCache.get("user123").orElseThrow());
+    }
+
+    @Test
+    void putAfterCommit_shouldOnlyCacheAfterTransactionCommits() {
+        beginTransaction();
+
+        balanceCache.putAfterCommit("user123", 1, new BigDecimal("10.00"));
+        assertTrue(balanceCache.get("user123").isEmpty());
+
+        commit();
+        assertEquals(new BigDecimal("10.00"), balanceCache.get("user123").orElseThrow());
+    }
+
+    @Test
+    void get_shouldAlwaysMiss_whenModeIsOff() {
+        walletProperties.getBalanceCache().setMode(WalletProperties.BalanceCache.Mode.OFF);
+        BalanceCache disabled = new BalanceCache(walletProperties, meterRegistry);
+
+        disabled.putAfterCommit("user123", 1, new BigDecimal("10.00"));
+
+        assertTrue(disabled.get("user123").isEmpty());
+    }
+}
@@ -0,0 +1,81 @@
+package com.rpay.wallet.service;
+
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.repository.BalanceCheckpointRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BalanceCheckpointServiceTest {
+
+    private static final String WATERMARK = "SELECT checkpointed_through FROM balance_checkpoint_watermark WHERE id = 1";
+
+    @Mock
+    private BalanceCheckpointRepository balanceCheckpointRepository;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final WalletProperties walletProperties = new WalletProperties();
+
+    private BalanceCheckpointService balanceCheckpointService;
+
+    @BeforeEach
+    void setUp() {
+        // Sem espera após a meia-noite, o último dia encerrado é sempre ontem
+        walletProperties.getBalanceCheckpoint().setDelay(Duration.ZERO);
+        balanceCheckpointService = new BalanceCheckpointService(balanceCheckpointRepository, jdbcTemplate,
+                new TransactionTemplate(transactionManager), walletProperties);
+    }
+
+    @Test
+    void writeCheckpoints_shouldWriteEachClosedDayAfterWatermark() {
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        LocalDate through = yesterday.minusDays(2);
+        when(jdbcTemplate.queryForObject(WATERMARK, LocalDate.class)).thenReturn(through);
+        when(jdbcTemplate.queryForObject(WATERMARK + " FOR UPDATE", LocalDate.class))
+                .thenReturn(through, through.plusDays(1));
+
+        balanceCheckpointService.writeCheckpoints();
+
+        verify(balanceCheckpointRepository).insertForDay(eq(through.plusDays(1)),
+                eq(through.plusDays(1).atStartOfDay()), eq(yesterday.atStartOfDay()), any());
+        verify(balanceCheckpointRepository).insertForDay(eq(yesterday),
+                eq(yesterday.atStartOfDay()), eq(LocalDate.now().atStartOfDay()), any());
+        verify(jdbcTemplate).update(anyString(), eq(yesterday));
+        verifyNoMoreInteractions(balanceCheckpointRepository);
+    }
+
+    @Test
+    void writeCheckpoints_shouldStartFromOldestTransaction_whenNoDayWasProcessed() {
+        LocalDateTime oldest = LocalDateTime.now().minusDays(1).truncatedTo(ChronoUnit.HOURS);
+        when(jdbcTemplate.queryForObject(WATERMARK, LocalDate.class)).thenReturn(null);
+        when(jdbcTemplate.queryForObject("SELECT MIN(created_at) FROM transactions", LocalDateTime.class))
+                .thenReturn(oldest);
+        when(jdbcTemplate.queryForObject(WATERMARK + " FOR UPDATE", LocalDate.class)).thenReturn(null);
+
+        balanceCheckpointService.writeCheckpoints();
+
+        verify(balanceCheckpointRepository).insertForDay(eq(oldest.toLocalDate()),
+                eq(oldest.toLocalDate().atStartOfDay()), eq(LocalDate.now().atStartOfDay()), any());
+    }
+}
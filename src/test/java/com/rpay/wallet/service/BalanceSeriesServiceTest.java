@@ -0,0 +1,95 @@
+package com.rpay.wallet.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.dto.BalanceChange;
+import com.rpay.wallet.exception.UnprocessableEntityException;
+import com.rpay.wallet.repository.TransactionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BalanceSeriesServiceTest {
+
+    private static final LocalDateTime FROM = LocalDateTime.of(2026, 10, 1, 0, 0);
+
+    @Mock
+    private TransactionService transactionService;
+
+    @Mock
+    private TransactionRepository transactionRepository;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private final WalletProperties walletProperties = new WalletProperties();
+
+    private BalanceSeriesService balanceSeriesService;
+
+    @BeforeEach
+    void setUp() {
+        balanceSeriesService = new BalanceSeriesService(transactionService, transactionRepository, objectMapper,
+                walletProperties);
+    }
+
+    @Test
+    void write_shouldReturnBalanceOfLastTransactionUpToEachPoint() throws Exception {
+        LocalDateTime to = FROM.plusHours(3);
+        when(transactionRepository.streamBalancesBetween("user123", FROM, to)).thenReturn(Stream.of(
+                new BalanceChange(FROM.plusMinutes(10), new BigDecimal("20.00"), new BigDecimal("10.00")),
+                new BalanceChange(FROM.plusMinutes(50), new BigDecimal("15.00"), new BigDecimal("-5.00")),
+                new BalanceChange(FROM.plusHours(2), new BigDecimal("40.00"), new BigDecimal("25.00"))));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        balanceSeriesService.write("user123", FROM, to, Duration.ofHours(1), new BigDecimal("10.00"), output);
+
+        assertEquals("[{\"timestamp\":\"2026-10-01T00:00:00\",\"balance\":10.00},"
+                        + "{\"timestamp\":\"2026-10-01T01:00:00\",\"balance\":15.00},"
+                        + "{\"timestamp\":\"2026-10-01T02:00:00\",\"balance\":40.00},"
+                        + "{\"timestamp\":\"2026-10-01T03:00:00\",\"balance\":40.00}]",
+                output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void write_shouldAddChanges_whenTransactionsHaveNoBalanceAfter() throws Exception {
+        LocalDateTime to = FROM.plusHours(2);
+        when(transactionRepository.streamBalancesBetween("merchant", FROM, to)).thenReturn(Stream.of(
+                new BalanceChange(FROM.plusMinutes(10), null, new BigDecimal("10.00")),
+                new BalanceChange(FROM.plusMinutes(20), null, new BigDecimal("20.00")),
+                new BalanceChange(FROM.plusMinutes(90), null, new BigDecimal("-5.00"))));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        balanceSeriesService.write("merchant", FROM, to, Duration.ofHours(1), new BigDecimal("100.00"), output);
+
+        assertEquals("[{\"timestamp\":\"2026-10-01T00:00:00\",\"balance\":100.00},"
+                        + "{\"timestamp\":\"2026-10-01T01:00:00\",\"balance\":130.00},"
+                        + "{\"timestamp\":\"2026-10-01T02:00:00\",\"balance\":125.00}]",
+                output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void open_shouldRejectSeriesWithTooManyPoints() {
+        walletProperties.getSeries().setMaxPoints(24);
+
+        UnprocessableEntityException exception = assertThrows(UnprocessableEntityException.class,
+                () -> balanceSeriesService.open("user123", FROM, FROM.plusDays(1), Duration.ofHours(1)));
+
+        assertEquals("The series must have at most 24 points", exception.getMessage());
+        verifyNoInteractions(transactionService);
+    }
+}
@@ -0,0 +1,108 @@
+package com.rpay.wallet.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.exception.NotFoundException;
+import com.rpay.wallet.model.Transaction;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BulkDepositServiceTest {
+
+    @Mock
+    private IdempotencyService idempotencyService;
+
+    @Mock
+    private TransactionService transactionService;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    private final WalletProperties walletProperties = new WalletProperties();
+
+    private BulkDepositService bulkDepositService;
+
+    @BeforeEach
+    void setUp() {
+        Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+        bulkDepositService = new BulkDepositService(idempotencyService, transactionService, objectMapper,
+                validator, walletProperties);
+
+        when(idempotencyService.executeBatchWithIdempotency(any(), any())).thenAnswer(invocation -> {
+            List<WalletCommand> commands = invocation.getArgument(0);
+            return commands.stream()
+                    .map(command -> command.getUserId().equals("missing")
+                            ? CommandResult.failure(new NotFoundException("Wallet not found for user: missing"))
+                            : CommandResult.success(Transaction.builder().id(UUID.randomUUID())
+                                    .fromUserId(command.getUserId()).amount(command.getAmount()).build()))
+                    .toList();
+        });
+    }
+
+    @Test
+    void deposit_shouldApplyRecordsInChunksAndWriteOneResultPerRecordInOrder() throws Exception {
+        walletProperties.getBulk().setChunkSize(2);
+        String body = """
+                {"userId":"user-b","amount":10.00}
+                {"userId":"user-a","amount":5.00}
+                {"userId":"missing","amount":1.00}
+                {"userId":"user-a","amount":-1}
+                {"userId":"user-a","amount":7.00}
+                """;
+
+        List<String> lines = run(body, "settlement-2026-10-18");
+
+        assertEquals(5, lines.size());
+        assertTrue(lines.get(0).contains("\"index\":0") && lines.get(0).contains("\"status\":201"));
+        assertTrue(lines.get(1).contains("\"index\":1") && lines.get(1).contains("\"status\":201"));
+        assertTrue(lines.get(2).contains("\"index\":2") && lines.get(2).contains("\"status\":404"));
+        assertTrue(lines.get(3).contains("\"index\":3") && lines.get(3).contains("\"status\":400"));
+        assertTrue(lines.get(4).contains("\"index\":4") && lines.get(4).contains("\"status\":201"));
+
+        verify(idempotencyService, times(3)).executeBatchWithIdempotency(any(), any());
+        verify(idempotencyService).executeBatchWithIdempotency(argThat(commands ->
+                commands.get(0).getUserId().equals("user-a")
+                        && commands.get(0).getIdempotencyKey().equals("settlement-2026-10-18:1")), any());
+    }
+
+    @Test
+    void deposit_shouldApplyRecordsReadSoFar_whenRecordIsMalformed() throws Exception {
+        String body = """
+                {"userId":"user-a","amount":5.00}
+                {"userId":"user-a","amount":
+                """;
+
+        List<String> lines = run(body, null);
+
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).contains("\"status\":201"));
+        assertTrue(lines.get(1).contains("\"index\":1") && lines.get(1).contains("Malformed record"));
+        verify(idempotencyService).executeBatchWithIdempotency(
+                argThat(commands -> commands.size() == 1 && commands.get(0).getIdempotencyKey() == null),
+                any(Function.class));
+    }
+
+    private List<String> run(String body, String idempotencyKey) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        bulkDepositService.deposit(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), output, idempotencyKey);
+        return output.toString(StandardCharsets.UTF_8).lines().toList();
+    }
+}
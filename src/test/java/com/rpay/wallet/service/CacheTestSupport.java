@@ -0,0 +1,36 @@
+package com.rpay.wallet.service;
+
+import com.rpay.wallet.config.WalletProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Base dos testes dos caches em memória: propriedades e métricas novas a cada teste e uma transação simulada
+ * para os putAfterCommit
+ */
+abstract class CacheTestSupport {
+
+    protected final WalletProperties walletProperties = new WalletProperties();
+
+    protected final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @AfterEach
+    void clearTransactionSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    /**
+     * Abre uma transação simulada; os putAfterCommit seguintes só têm efeito em commit()
+     */
+    protected void beginTransaction() {
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    protected void commit() {
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+    }
+}
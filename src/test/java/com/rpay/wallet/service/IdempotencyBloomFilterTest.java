@@ -0,0 +1,77 @@
+package com.rpay.wallet.service;
+
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.model.IdempotencyKey;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class IdempotencyBloomFilterTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private IdempotencyPartitionService idempotencyPartitionService;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final LocalDate today = LocalDate.now();
+
+    private IdempotencyBloomFilter bloomFilter;
+
+    @BeforeEach
+    void setUp() {
+        bloomFilter = new IdempotencyBloomFilter(jdbcTemplate, idempotencyPartitionService, new WalletProperties(),
+                meterRegistry);
+    }
+
+    @Test
+    void check_shouldRuleOutNewKeys_afterFiltersAreBuiltFromClosedDays() throws Exception {
+        UUID stored = IdempotencyKey.hash("key-1", "user123", "DEPOSIT");
+        when(idempotencyPartitionService.liveFrom()).thenReturn(today.minusDays(2));
+        when(jdbcTemplate.queryForObject(anyString(), eq(Long.class), any(LocalDate.class))).thenReturn(1L);
+        ResultSet row = mock(ResultSet.class);
+        when(row.getObject(1, UUID.class)).thenReturn(stored);
+        doAnswer(invocation -> {
+            if (invocation.getArgument(2).equals(today.minusDays(2))) {
+                invocation.<RowCallbackHandler>getArgument(1).processRow(row);
+            }
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class), any(LocalDate.class));
+
+        bloomFilter.refresh();
+
+        assertEquals(IdempotencyBloomFilter.Result.MAYBE, bloomFilter.check(stored, today));
+        List.of("key-2", "key-3", "key-4").forEach(key -> assertEquals(IdempotencyBloomFilter.Result.ABSENT,
+                bloomFilter.check(IdempotencyKey.hash(key, "user123", "DEPOSIT"), today)));
+        assertEquals(0.0, meterRegistry.get("idempotency.bloom.false.positive.rate").gauge().value());
+        assertTrue(meterRegistry.get("idempotency.bloom.memory").gauge().value() > 0);
+    }
+
+    @Test
+    void check_shouldReturnUnknown_whenADayHasNoFilter() {
+        when(idempotencyPartitionService.liveFrom()).thenReturn(today.minusDays(1));
+
+        assertEquals(IdempotencyBloomFilter.Result.UNKNOWN,
+                bloomFilter.check(IdempotencyKey.hash("key-1", "user123", "DEPOSIT"), today));
+        verifyNoInteractions(jdbcTemplate);
+    }
+}
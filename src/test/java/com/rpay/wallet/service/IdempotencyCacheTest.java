@@ -0,0 +1,41 @@
+package com.rpay.wallet.service;
+
+import com.rpay.wallet.dto.IdempotentResponse;
+import com.rpay.wallet.model.IdempotencyKey;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyCacheTest extends CacheTestSupport {
+
+    private final IdempotencyCache idempotencyCache = new IdempotencyCache(walletProperties, meterRegistry);
+
+    @Test
+    void get_shouldReturnResponse_onlyForSameKeyUserAndOperation() {
+        IdempotentResponse response = new IdempotentResponse(UUID.randomUUID().toString(), 201, "{}".getBytes());
+
+        idempotencyCache.putAfterCommit(IdempotencyKey.hash("key-1", "user123", "DEPOSIT"), response);
+
+        assertSame(response, idempotencyCache.get(IdempotencyKey.hash("key-1", "user123", "DEPOSIT")).orElseThrow());
+        assertTrue(idempotencyCache.get(IdempotencyKey.hash("key-1", "user456", "DEPOSIT")).isEmpty());
+        assertTrue(idempotencyCache.get(IdempotencyKey.hash("key-1", "user123", "WITHDRAWAL")).isEmpty());
+        assertTrue(idempotencyCache.get(IdempotencyKey.hash("23key-1", "user1", "DEPOSIT")).isEmpty());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "idempotency").tag("result", "hit")
+                .functionCounter().count());
+    }
+
+    @Test
+    void putAfterCommit_shouldOnlyCacheAfterTransactionCommits() {
+        IdempotentResponse response = new IdempotentResponse(UUID.randomUUID().toString(), 201, "{}".getBytes());
+        beginTransaction();
+
+        UUID keyHash = IdempotencyKey.hash("key-2", "user123", "DEPOSIT");
+        idempotencyCache.putAfterCommit(keyHash, response);
+        assertTrue(idempotencyCache.get(keyHash).isEmpty());
+
+        commit();
+        assertTrue(idempotencyCache.get(keyHash).isPresent());
+    }
+}
@@ -0,0 +1,71 @@
+package com.rpay.wallet.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyInFlightRegistryTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final IdempotencyInFlightRegistry registry = new IdempotencyInFlightRegistry(meterRegistry);
+
+    @Test
+    void execute_shouldWaitForInFlightRequestWithSameKey() throws Exception {
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch releaseLeader = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() ->
+                registry.execute("key-1", "user123", "DEPOSIT", () -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    leaderStarted.countDown();
+                    await(releaseLeader);
+                    running.decrementAndGet();
+                    return "leader";
+                }));
+        assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(() ->
+                registry.execute("key-1", "user123", "DEPOSIT", () -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    running.decrementAndGet();
+                    return "follower";
+                }));
+        while (meterRegistry.get("idempotency.inflight.coalesced").counter().count() < 1) {
+            Thread.sleep(5);
+        }
+        assertFalse(follower.isDone());
+
+        releaseLeader.countDown();
+        assertEquals("leader", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("follower", follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    void execute_shouldNotCoalesceDifferentKeysOrRequestsWithoutKey() {
+        String result = registry.execute("key-1", "user123", "DEPOSIT",
+                () -> registry.execute("key-1", "user123", "WITHDRAWAL",
+                        () -> registry.execute(null, "user123", "DEPOSIT", () -> "done")));
+
+        assertEquals("done", result);
+        assertEquals(0.0, meterRegistry.get("idempotency.inflight.coalesced").counter().count());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
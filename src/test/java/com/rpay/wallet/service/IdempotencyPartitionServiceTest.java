@@ -0,0 +1,84 @@
+package com.rpay.wallet.service;
+
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.repository.DatabasePlatform;
+import com.rpay.wallet.repository.IdempotencyKeyRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class IdempotencyPartitionServiceTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private DatabasePlatform databasePlatform;
+
+    @Mock
+    private IdempotencyKeyRepository idempotencyKeyRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final WalletProperties walletProperties = new WalletProperties();
+
+    private IdempotencyPartitionService idempotencyPartitionService;
+
+    @BeforeEach
+    void setUp() {
+        idempotencyPartitionService = new IdempotencyPartitionService(jdbcTemplate, databasePlatform,
+                idempotencyKeyRepository, new TransactionTemplate(transactionManager), walletProperties);
+    }
+
+    @Test
+    void maintainPartitions_shouldDeleteExpiredRows_whenTableIsNotPartitioned() {
+        when(databasePlatform.isPostgres()).thenReturn(false);
+
+        idempotencyPartitionService.maintainPartitions();
+
+        verify(idempotencyKeyRepository).deleteExpired(LocalDate.now().minusDays(7));
+        verify(jdbcTemplate, never()).execute(anyString());
+    }
+
+    @Test
+    void maintainPartitions_shouldCreateUpcomingAndDropExpiredPartitions() {
+        LocalDate today = LocalDate.now();
+        LocalDate expired = today.minusDays(8);
+        LocalDate live = today.minusDays(2);
+        when(databasePlatform.isPostgres()).thenReturn(true);
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class))).thenReturn(List.of(
+                new IdempotencyPartitionService.Partition("idempotency_key_legacy",
+                        "FOR VALUES FROM (MINVALUE) TO ('" + expired + "')", false),
+                new IdempotencyPartitionService.Partition("idempotency_key_expired",
+                        "FOR VALUES FROM ('" + expired + "') TO ('" + expired.plusDays(1) + "')", true),
+                new IdempotencyPartitionService.Partition("idempotency_key_live",
+                        "FOR VALUES FROM ('" + live + "') TO ('" + live.plusDays(1) + "')", false)));
+
+        idempotencyPartitionService.maintainPartitions();
+
+        verify(jdbcTemplate, times(4)).execute(startsWith("CREATE TABLE IF NOT EXISTS idempotency_key_p"));
+        verify(jdbcTemplate).execute("ALTER TABLE idempotency_key DETACH PARTITION \"idempotency_key_legacy\" CONCURRENTLY");
+        verify(jdbcTemplate).execute("ALTER TABLE idempotency_key DETACH PARTITION \"idempotency_key_expired\" FINALIZE");
+        verify(jdbcTemplate).execute("DROP TABLE \"idempotency_key_legacy\"");
+        verify(jdbcTemplate).execute("DROP TABLE \"idempotency_key_expired\"");
+        verify(jdbcTemplate, never()).execute(contains("idempotency_key_live"));
+        verifyNoInteractions(idempotencyKeyRepository);
+    }
+}
@@ -1,22 +1,38 @@
 package com.rpay.wallet.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.dto.IdempotentResponse;
+import com.rpay.wallet.dto.TransactionRequest;
 import com.rpay.wallet.exception.ConflictException;
+import com.rpay.wallet.exception.IdempotentReplayException;
+import com.rpay.wallet.exception.NotFoundException;
+import com.rpay.wallet.exception.UnprocessableEntityException;
 import com.rpay.wallet.model.IdempotencyKey;
 import com.rpay.wallet.model.Transaction;
+import com.rpay.wallet.repository.IdempotencyClaim;
 import com.rpay.wallet.repository.IdempotencyKeyRepository;
 import com.rpay.wallet.repository.TransactionRepository;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -28,9 +44,31 @@ class IdempotencyServiceTest {
     @Mock
     private TransactionRepository transactionRepository;
 
+    @Mock
+    private IdempotencyCache idempotencyCache;
+
+    private static final LocalDate LIVE_FROM = LocalDate.of(2026, 10, 11);
+
+    @Mock
+    private IdempotencyPartitionService idempotencyPartitionService;
+
+    @Mock
+    private IdempotencyBloomFilter idempotencyBloomFilter;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    @Spy
+    private WalletProperties walletProperties = new WalletProperties();
+
     @InjectMocks
     private IdempotencyService idempotencyService;
 
+    @BeforeEach
+    void setUp() {
+        lenient().when(idempotencyPartitionService.liveFrom()).thenReturn(LIVE_FROM);
+    }
+
     @Test
     void executeWithIdempotency_shouldExecuteOperation_whenNoIdempotencyKey() {
         // Arrange
@@ -43,8 +81,8 @@ class IdempotencyServiceTest {
 
         // Assert
         assertEquals(expectedTransaction, result);
-        verify(idempotencyKeyRepository, never()).findByKeyAndUserIdAndOperation(any(), any(), any());
-        verify(idempotencyKeyRepository, never()).save(any());
+        verify(idempotencyKeyRepository, never()).claim(any(), anyShort(), any(), any());
+        verify(idempotencyKeyRepository, never()).complete(any(), any(), any(), anyInt(), any());
     }
 
     @Test
@@ -58,46 +96,67 @@ class IdempotencyServiceTest {
         expectedTransaction.setId(UUID.randomUUID());
         Supplier<Transaction> supplier = () -> expectedTransaction;
 
-        when(idempotencyKeyRepository.findByKeyAndUserIdAndOperation(idempotencyKey, userId, operation))
-                .thenReturn(Optional.empty());
+        when(idempotencyKeyRepository.claim(eq(IdempotencyKey.hash(idempotencyKey, userId, operation)), anyShort(), any(), any()))
+                .thenReturn(1);
 
         // Act
         Transaction result = idempotencyService.executeWithIdempotency(idempotencyKey, userId, operation, supplier);
 
         // Assert
         assertEquals(expectedTransaction, result);
-        verify(idempotencyKeyRepository).findByKeyAndUserIdAndOperation(idempotencyKey, userId, operation);
-        verify(idempotencyKeyRepository).save(any(IdempotencyKey.class));
+        verify(idempotencyKeyRepository, never()).findResponse(any(), any());
+        verify(idempotencyKeyRepository).complete(eq(IdempotencyKey.hash(idempotencyKey, userId, operation)), any(),
+                eq(expectedTransaction.getId().toString()), eq(201), any());
+        verify(idempotencyCache).putAfterCommit(eq(IdempotencyKey.hash(idempotencyKey, userId, operation)), any());
     }
 
     @Test
-    void executeWithIdempotency_shouldReturnExistingTransaction_whenIdempotencyKeyExists() {
+    void executeWithIdempotency_shouldReplayStoredResponse_whenIdempotencyKeyExists() {
         // Arrange
         String idempotencyKey = "test-key-123";
         String userId = "user123";
         String operation = "DEPOSIT";
-        UUID transactionId = UUID.randomUUID();
+        IdempotentResponse stored = new IdempotentResponse(UUID.randomUUID().toString(), 201, "{}".getBytes());
 
-        IdempotencyKey existingRecord = new IdempotencyKey();
-        existingRecord.setReferenceId(transactionId.toString());
+        Supplier<Transaction> supplier = mock(Supplier.class);
+
+        when(idempotencyKeyRepository.claim(eq(IdempotencyKey.hash(idempotencyKey, userId, operation)), anyShort(), any(), any()))
+                .thenReturn(0);
+        when(idempotencyKeyRepository.findResponse(IdempotencyKey.hash(idempotencyKey, userId, operation), LIVE_FROM))
+                .thenReturn(Optional.of(stored));
+
+        // Act
+        IdempotentReplayException exception = assertThrows(IdempotentReplayException.class,
+                () -> idempotencyService.executeWithIdempotency(idempotencyKey, userId, operation, supplier));
+
+        // Assert
+        assertSame(stored, exception.getResponse());
+        verify(supplier, never()).get(); // Não deve executar a operação
+        verify(transactionRepository, never()).findById(any()); // O snapshot já tem o corpo da resposta
+        verify(idempotencyKeyRepository, never()).complete(any(), any(), any(), anyInt(), any()); // Não deve alterar o registro
+    }
 
+    @Test
+    void executeWithIdempotency_shouldReplayLegacyRecord_bySerializingTransaction() throws Exception {
+        // Arrange
+        UUID transactionId = UUID.randomUUID();
         Transaction existingTransaction = new Transaction();
         existingTransaction.setId(transactionId);
 
-        Supplier<Transaction> supplier = mock(Supplier.class);
-
-        when(idempotencyKeyRepository.findByKeyAndUserIdAndOperation(idempotencyKey, userId, operation))
-                .thenReturn(Optional.of(existingRecord));
+        when(idempotencyKeyRepository.claim(eq(IdempotencyKey.hash("test-key-123", "user123", "DEPOSIT")), anyShort(), any(), any()))
+                .thenReturn(0);
+        when(idempotencyKeyRepository.findResponse(IdempotencyKey.hash("test-key-123", "user123", "DEPOSIT"), LIVE_FROM))
+                .thenReturn(Optional.of(new IdempotentResponse(transactionId.toString(), null, null)));
         when(transactionRepository.findById(transactionId))
                 .thenReturn(Optional.of(existingTransaction));
 
         // Act
-        Transaction result = idempotencyService.executeWithIdempotency(idempotencyKey, userId, operation, supplier);
+        IdempotentReplayException exception = assertThrows(IdempotentReplayException.class,
+                () -> idempotencyService.executeWithIdempotency("test-key-123", "user123", "DEPOSIT", mock(Supplier.class)));
 
         // Assert
-        assertEquals(existingTransaction, result);
-        verify(supplier, never()).get(); // Não deve executar a operação
-        verify(idempotencyKeyRepository, never()).save(any()); // Não deve salvar novo registro
+        assertEquals(201, exception.getResponse().getStatus());
+        assertEquals(transactionId, objectMapper.readValue(exception.getResponse().getBody(), Transaction.class).getId());
     }
 
     @Test
@@ -108,13 +167,12 @@ class IdempotencyServiceTest {
         String operation = "DEPOSIT";
         UUID transactionId = UUID.randomUUID();
 
-        IdempotencyKey existingRecord = new IdempotencyKey();
-        existingRecord.setReferenceId(transactionId.toString());
-
         Supplier<Transaction> supplier = mock(Supplier.class);
 
-        when(idempotencyKeyRepository.findByKeyAndUserIdAndOperation(idempotencyKey, userId, operation))
-                .thenReturn(Optional.of(existingRecord));
+        when(idempotencyKeyRepository.claim(eq(IdempotencyKey.hash(idempotencyKey, userId, operation)), anyShort(), any(), any()))
+                .thenReturn(0);
+        when(idempotencyKeyRepository.findResponse(IdempotencyKey.hash(idempotencyKey, userId, operation), LIVE_FROM))
+                .thenReturn(Optional.of(new IdempotentResponse(transactionId.toString(), null, null)));
         when(transactionRepository.findById(transactionId))
                 .thenReturn(Optional.empty());
 
@@ -133,7 +191,8 @@ class IdempotencyServiceTest {
         String userId = "user123";
         String operation = "DEPOSIT";
 
-        when(idempotencyKeyRepository.findByKeyAndUserIdAndOperation(idempotencyKey, userId, operation))
+        when(idempotencyKeyRepository.findByKeyHashAndCreatedOnGreaterThanEqual(
+                IdempotencyKey.hash(idempotencyKey, userId, operation), LIVE_FROM))
                 .thenReturn(Optional.of(new IdempotencyKey()));
 
         // Act
@@ -150,7 +209,8 @@ class IdempotencyServiceTest {
         String userId = "user123";
         String operation = "DEPOSIT";
 
-        when(idempotencyKeyRepository.findByKeyAndUserIdAndOperation(idempotencyKey, userId, operation))
+        when(idempotencyKeyRepository.findByKeyHashAndCreatedOnGreaterThanEqual(
+                IdempotencyKey.hash(idempotencyKey, userId, operation), LIVE_FROM))
                 .thenReturn(Optional.empty());
 
         // Act
@@ -174,7 +234,8 @@ class IdempotencyServiceTest {
         Transaction existingTransaction = new Transaction();
         existingTransaction.setId(transactionId);
 
-        when(idempotencyKeyRepository.findByKeyAndUserIdAndOperation(idempotencyKey, userId, operation))
+        when(idempotencyKeyRepository.findByKeyHashAndCreatedOnGreaterThanEqual(
+                IdempotencyKey.hash(idempotencyKey, userId, operation), LIVE_FROM))
                 .thenReturn(Optional.of(existingRecord));
         when(transactionRepository.findById(transactionId))
                 .thenReturn(Optional.of(existingTransaction));
@@ -194,7 +255,8 @@ class IdempotencyServiceTest {
         String userId = "user123";
         String operation = "DEPOSIT";
 
-        when(idempotencyKeyRepository.findByKeyAndUserIdAndOperation(idempotencyKey, userId, operation))
+        when(idempotencyKeyRepository.findByKeyHashAndCreatedOnGreaterThanEqual(
+                IdempotencyKey.hash(idempotencyKey, userId, operation), LIVE_FROM))
                 .thenReturn(Optional.empty());
 
         // Act
@@ -215,7 +277,8 @@ class IdempotencyServiceTest {
         IdempotencyKey existingRecord = new IdempotencyKey();
         existingRecord.setReferenceId(transactionId.toString());
 
-        when(idempotencyKeyRepository.findByKeyAndUserIdAndOperation(idempotencyKey, userId, operation))
+        when(idempotencyKeyRepository.findByKeyHashAndCreatedOnGreaterThanEqual(
+                IdempotencyKey.hash(idempotencyKey, userId, operation), LIVE_FROM))
                 .thenReturn(Optional.of(existingRecord));
         when(transactionRepository.findById(transactionId))
                 .thenReturn(Optional.empty());
@@ -226,4 +289,286 @@ class IdempotencyServiceTest {
         // Assert
         assertFalse(result.isPresent());
     }
+
+    @Test
+    void executeBatchWithIdempotency_shouldExecuteDuplicateKeysOnlyOnce() {
+        // Arrange
+        TransactionRequest request = new TransactionRequest();
+        request.setUserId("user123");
+        request.setAmount(BigDecimal.TEN);
+        WalletCommand first = WalletCommand.deposit(request, "batch-key");
+        WalletCommand retry = WalletCommand.deposit(request, "batch-key");
+
+        Transaction transaction = new Transaction();
+        transaction.setId(UUID.randomUUID());
+        when(idempotencyKeyRepository.claim(eq(IdempotencyKey.hash("batch-key", "user123", "DEPOSIT")), anyShort(), any(), any()))
+                .thenReturn(1);
+
+        // Act
+        List<CommandResult> results = idempotencyService.executeBatchWithIdempotency(List.of(first, retry),
+                commands -> commands.stream().map(command -> CommandResult.success(transaction)).toList());
+
+        // Assert
+        assertEquals(2, results.size());
+        assertSame(transaction, results.get(0).getTransaction());
+        assertSame(transaction, results.get(1).getTransaction());
+        verify(idempotencyKeyRepository, times(1)).claim(any(), anyShort(), any(), any());
+        verify(idempotencyKeyRepository, times(1)).complete(eq(IdempotencyKey.hash("batch-key", "user123", "DEPOSIT")), any(),
+                eq(transaction.getId().toString()), eq(201), any());
+    }
+
+    @Test
+    void executeWithIdempotency_shouldThrowConflictException_whenIdempotencyKeyIsStillBeingProcessed() {
+        // Arrange
+        Supplier<Transaction> supplier = mock(Supplier.class);
+
+        when(idempotencyKeyRepository.claim(eq(IdempotencyKey.hash("test-key-123", "user123", "DEPOSIT")), anyShort(), any(), any()))
+                .thenReturn(0);
+        when(idempotencyKeyRepository.findResponse(IdempotencyKey.hash("test-key-123", "user123", "DEPOSIT"), LIVE_FROM))
+                .thenReturn(Optional.of(new IdempotentResponse(null, null, null)));
+
+        // Act & Assert
+        assertThrows(ConflictException.class,
+                () -> idempotencyService.executeWithIdempotency("test-key-123", "user123", "DEPOSIT", supplier));
+        verify(supplier, never()).get();
+    }
+
+    @Test
+    void executeBatchWithIdempotency_shouldStoreFailure_whenCommandIsRejected() {
+        // Arrange
+        TransactionRequest request = new TransactionRequest();
+        request.setUserId("user123");
+        request.setAmount(BigDecimal.TEN);
+
+        when(idempotencyKeyRepository.claim(eq(IdempotencyKey.hash("batch-key", "user123", "WITHDRAWAL")), anyShort(), any(), any()))
+                .thenReturn(1);
+
+        // Act
+        List<CommandResult> results = idempotencyService.executeBatchWithIdempotency(
+                List.of(WalletCommand.withdraw(request, "batch-key")),
+                commands -> List.of(CommandResult.failure(new UnprocessableEntityException("Insufficient funds"))));
+
+        // Assert
+        assertFalse(results.get(0).isSuccess());
+        verify(idempotencyKeyRepository).complete(eq(IdempotencyKey.hash("batch-key", "user123", "WITHDRAWAL")), any(), isNull(), eq(422), any());
+        verify(idempotencyKeyRepository, never()).release(any(), any());
+    }
+
+    @Test
+    void executeBatchWithIdempotency_shouldReleaseKey_whenRejectionIsNotReplayable() {
+        // Arrange
+        TransactionRequest request = new TransactionRequest();
+        request.setUserId("user123");
+        request.setAmount(BigDecimal.TEN);
+
+        when(idempotencyKeyRepository.claim(eq(IdempotencyKey.hash("batch-key", "user123", "WITHDRAWAL")), anyShort(), any(), any()))
+                .thenReturn(1);
+
+        // Act
+        idempotencyService.executeBatchWithIdempotency(
+                List.of(WalletCommand.withdraw(request, "batch-key")),
+                commands -> List.of(CommandResult.failure(new ConflictException("Wallet was updated concurrently"))));
+
+        // Assert
+        verify(idempotencyKeyRepository).release(eq(IdempotencyKey.hash("batch-key", "user123", "WITHDRAWAL")), any());
+        verify(idempotencyKeyRepository, never()).complete(any(), any(), any(), anyInt(), any());
+    }
+
+    @Test
+    void recordFailure_shouldStoreProblemDetail_forReplayableFailures() throws Exception {
+        // Arrange
+        when(idempotencyKeyRepository.insertResponse(eq(IdempotencyKey.hash("test-key-123", "user123", "DEPOSIT")), anyShort(), eq(404), any(), any(), any()))
+                .thenReturn(1);
+
+        // Act
+        idempotencyService.recordFailure("test-key-123", "user123", "DEPOSIT",
+                new NotFoundException("Wallet not found for user: user123"));
+        idempotencyService.recordFailure("test-key-123", "user123", "DEPOSIT",
+                new ConflictException("Wallet was updated concurrently"));
+
+        // Assert
+        verify(idempotencyKeyRepository, times(1)).insertResponse(any(), anyShort(), anyInt(), any(), any(), any());
+        verify(idempotencyCache).putAfterCommit(eq(IdempotencyKey.hash("test-key-123", "user123", "DEPOSIT")),
+                argThat(response -> response.getStatus() == 404 && !response.isSuccess()));
+    }
+
+    @Test
+    void executeWithIdempotency_shouldLockKeyBeforeClaim_whenTableIsPartitioned() {
+        // Arrange
+        walletProperties.getIdempotency().getBloom().setBuildDelay(Duration.ofHours(12)); // Sempre perto da meia-noite
+        Transaction transaction = new Transaction();
+        transaction.setId(UUID.randomUUID());
+
+        when(idempotencyPartitionService.isPartitioned()).thenReturn(true);
+        when(idempotencyKeyRepository.claimOrFind(eq(IdempotencyKey.hash("test-key-123", "user123", "DEPOSIT")), anyShort(), any(), eq(LIVE_FROM)))
+                .thenReturn(Optional.of(claim(true, null)));
+
+        // Act
+        idempotencyService.executeWithIdempotency("test-key-123", "user123", "DEPOSIT", () -> transaction);
+
+        // Assert
+        InOrder inOrder = inOrder(idempotencyKeyRepository);
+        inOrder.verify(idempotencyKeyRepository).lockKey(IdempotencyKey.hash("test-key-123", "user123", "DEPOSIT").getMostSignificantBits());
+        inOrder.verify(idempotencyKeyRepository).claimOrFind(eq(IdempotencyKey.hash("test-key-123", "user123", "DEPOSIT")), anyShort(), any(), eq(LIVE_FROM));
+        verify(idempotencyKeyRepository, never()).claim(any(), anyShort(), any(), any());
+        verify(idempotencyKeyRepository, never()).findResponse(any(), any());
+    }
+
+    @Test
+    void executeWithIdempotency_shouldSkipKeyLock_whenClaimIsFarFromMidnight() {
+        // Arrange
+        UUID keyHash = IdempotencyKey.hash("test-key-123", "user123", "DEPOSIT");
+        Transaction transaction = new Transaction();
+        transaction.setId(UUID.randomUUID());
+
+        walletProperties.getIdempotency().getBloom().setBuildDelay(Duration.ZERO); // Nunca perto da meia-noite
+        when(idempotencyPartitionService.isPartitioned()).thenReturn(true);
+        when(idempotencyKeyRepository.claimOrFind(eq(keyHash), anyShort(), any(), eq(LIVE_FROM)))
+                .thenReturn(Optional.of(claim(true, null)));
+
+        // Act
+        idempotencyService.executeWithIdempotency("test-key-123", "user123", "DEPOSIT", () -> transaction);
+
+        // Assert
+        verify(idempotencyKeyRepository, never()).lockKey(anyLong());
+        verify(idempotencyKeyRepository).claimOrFind(eq(keyHash), anyShort(), any(), eq(LIVE_FROM));
+    }
+
+    @Test
+    void isNearMidnight_shouldCoverBuildDelayOnBothSidesOfMidnight() {
+        Duration window = Duration.ofMinutes(1);
+        LocalDate day = LocalDate.of(2026, 10, 18);
+
+        assertTrue(IdempotencyService.isNearMidnight(day.atStartOfDay(), window));
+        assertTrue(IdempotencyService.isNearMidnight(day.atTime(0, 0, 59), window));
+        assertFalse(IdempotencyService.isNearMidnight(day.atTime(0, 1), window));
+        assertFalse(IdempotencyService.isNearMidnight(day.atTime(12, 0), window));
+        assertFalse(IdempotencyService.isNearMidnight(day.atTime(23, 58, 59), window));
+        assertTrue(IdempotencyService.isNearMidnight(day.atTime(23, 59), window));
+        assertTrue(IdempotencyService.isNearMidnight(day.atTime(23, 59, 59, 999_999_999), window));
+    }
+
+    @Test
+    void executeWithIdempotency_shouldReplayResponseReadByClaim_whenTableIsPartitioned() {
+        // Arrange
+        UUID keyHash = IdempotencyKey.hash("test-key-123", "user123", "DEPOSIT");
+        IdempotentResponse stored = new IdempotentResponse(UUID.randomUUID().toString(), 201, "{}".getBytes());
+        Supplier<Transaction> supplier = mock(Supplier.class);
+
+        when(idempotencyPartitionService.isPartitioned()).thenReturn(true);
+        when(idempotencyKeyRepository.claimOrFind(eq(keyHash), anyShort(), any(), eq(LIVE_FROM)))
+                .thenReturn(Optional.of(claim(false, stored)));
+
+        // Act
+        IdempotentReplayException exception = assertThrows(IdempotentReplayException.class,
+                () -> idempotencyService.executeWithIdempotency("test-key-123", "user123", "DEPOSIT", supplier));
+
+        // Assert
+        assertEquals(stored.getReferenceId(), exception.getResponse().getReferenceId());
+        assertArrayEquals(stored.getBody(), exception.getResponse().getBody());
+        verify(supplier, never()).get();
+        verify(idempotencyKeyRepository, never()).findResponse(any(), any()); // Lida pelo próprio claim
+        verify(idempotencyCache).putAfterCommit(eq(keyHash), any());
+    }
+
+    @Test
+    void executeWithIdempotency_shouldReadResponseAgain_whenConcurrentClaimCommittedAfterStatementSnapshot() {
+        // Arrange
+        UUID keyHash = IdempotencyKey.hash("test-key-123", "user123", "DEPOSIT");
+        IdempotentResponse stored = new IdempotentResponse(UUID.randomUUID().toString(), 201, "{}".getBytes());
+
+        when(idempotencyPartitionService.isPartitioned()).thenReturn(true);
+        when(idempotencyKeyRepository.claimOrFind(eq(keyHash), anyShort(), any(), eq(LIVE_FROM))).thenReturn(Optional.empty());
+        when(idempotencyKeyRepository.findResponse(keyHash, LIVE_FROM)).thenReturn(Optional.of(stored));
+
+        // Act
+        IdempotentReplayException exception = assertThrows(IdempotentReplayException.class,
+                () -> idempotencyService.executeWithIdempotency("test-key-123", "user123", "DEPOSIT", () -> null));
+
+        // Assert
+        assertSame(stored, exception.getResponse());
+    }
+
+    @Test
+    void executeWithIdempotency_shouldSkipOlderDays_whenBloomFilterRulesKeyOut() {
+        // Arrange
+        UUID keyHash = IdempotencyKey.hash("test-key-123", "user123", "DEPOSIT");
+        Transaction transaction = new Transaction();
+        transaction.setId(UUID.randomUUID());
+
+        when(idempotencyBloomFilter.check(eq(keyHash), any())).thenReturn(IdempotencyBloomFilter.Result.ABSENT);
+        when(idempotencyKeyRepository.claimNew(eq(keyHash), anyShort(), any())).thenReturn(1);
+
+        // Act
+        idempotencyService.executeWithIdempotency("test-key-123", "user123", "DEPOSIT", () -> transaction);
+
+        // Assert
+        verify(idempotencyKeyRepository, never()).claim(any(), anyShort(), any(), any());
+        verify(idempotencyBloomFilter, never()).recordFalsePositive();
+    }
+
+    @Test
+    void executeWithIdempotency_shouldStillLockKeyNearMidnight_whenBloomFilterRulesKeyOut() {
+        // Arrange
+        walletProperties.getIdempotency().getBloom().setBuildDelay(Duration.ofHours(12)); // Sempre perto da meia-noite
+        UUID keyHash = IdempotencyKey.hash("test-key-123", "user123", "DEPOSIT");
+        Transaction transaction = new Transaction();
+        transaction.setId(UUID.randomUUID());
+
+        when(idempotencyPartitionService.isPartitioned()).thenReturn(true);
+        when(idempotencyBloomFilter.check(eq(keyHash), any())).thenReturn(IdempotencyBloomFilter.Result.ABSENT);
+        when(idempotencyKeyRepository.claimNewOrFind(eq(keyHash), anyShort(), any(), eq(LIVE_FROM)))
+                .thenReturn(Optional.of(claim(true, null)));
+
+        // Act
+        idempotencyService.executeWithIdempotency("test-key-123", "user123", "DEPOSIT", () -> transaction);
+
+        // Assert
+        InOrder inOrder = inOrder(idempotencyKeyRepository);
+        inOrder.verify(idempotencyKeyRepository).lockKey(keyHash.getMostSignificantBits());
+        inOrder.verify(idempotencyKeyRepository).claimNewOrFind(eq(keyHash), anyShort(), any(), eq(LIVE_FROM));
+        verify(idempotencyKeyRepository, never()).claimOrFind(any(), anyShort(), any(), any());
+    }
+
+    @Test
+    void executeWithIdempotency_shouldRecordFalsePositive_whenBloomFilterMatchIsNewKey() {
+        // Arrange
+        UUID keyHash = IdempotencyKey.hash("test-key-123", "user123", "DEPOSIT");
+        Transaction transaction = new Transaction();
+        transaction.setId(UUID.randomUUID());
+
+        when(idempotencyBloomFilter.check(eq(keyHash), any())).thenReturn(IdempotencyBloomFilter.Result.MAYBE);
+        when(idempotencyKeyRepository.claim(eq(keyHash), anyShort(), any(), eq(LIVE_FROM))).thenReturn(1);
+
+        // Act
+        idempotencyService.executeWithIdempotency("test-key-123", "user123", "DEPOSIT", () -> transaction);
+
+        // Assert
+        verify(idempotencyKeyRepository, never()).claimNew(any(), anyShort(), any());
+        verify(idempotencyBloomFilter).recordFalsePositive();
+    }
+
+    private static IdempotencyClaim claim(boolean claimed, IdempotentResponse response) {
+        return new IdempotencyClaim() {
+            @Override
+            public Boolean getClaimed() {
+                return claimed;
+            }
+
+            @Override
+            public String getReferenceId() {
+                return response == null ? null : response.getReferenceId();
+            }
+
+            @Override
+            public Integer getResponseStatus() {
+                return response == null ? null : response.getStatus();
+            }
+
+            @Override
+            public byte[] getResponseBody() {
+                return response == null ? null : response.getBody();
+            }
+        };
+    }
 }
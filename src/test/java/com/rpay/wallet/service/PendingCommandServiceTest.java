@@ -0,0 +1,196 @@
+package com.rpay.wallet.service;
+
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.exception.UnprocessableEntityException;
+import com.rpay.wallet.exception.WalletBusyException;
+import com.rpay.wallet.model.CommandStatus;
+import com.rpay.wallet.model.PendingCommand;
+import com.rpay.wallet.model.Transaction;
+import com.rpay.wallet.model.TransactionType;
+import com.rpay.wallet.repository.PendingCommandRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PendingCommandServiceTest {
+
+    @Mock
+    private PendingCommandRepository pendingCommandRepository;
+
+    @Mock
+    private IdempotencyService idempotencyService;
+
+    @Mock
+    private TransactionService transactionService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final WalletProperties walletProperties = new WalletProperties();
+
+    private PendingCommandService pendingCommandService;
+
+    @BeforeEach
+    void setUp() {
+        pendingCommandService = new PendingCommandService(pendingCommandRepository, idempotencyService,
+                transactionService, new TransactionTemplate(transactionManager), walletProperties);
+    }
+
+    @Test
+    void submit_shouldStoreCommandAsPending() {
+        when(pendingCommandRepository.save(any(PendingCommand.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        WalletCommand command = WalletCommand.builder()
+                .type(TransactionType.DEPOSIT)
+                .userId("user123")
+                .amount(new BigDecimal("10.00"))
+                .idempotencyKey("async-key")
+                .build();
+
+        PendingCommand result = pendingCommandService.submit(command);
+
+        assertEquals(CommandStatus.PENDING, result.getStatus());
+        assertEquals("user123", result.getUserId());
+        assertEquals("async-key", result.getIdempotencyKey());
+    }
+
+    @Test
+    void submit_shouldReturnAcceptedCommand_whenIdempotencyKeyWasAlreadySubmitted() {
+        PendingCommand accepted = pending(TransactionType.DEPOSIT);
+        when(pendingCommandRepository.findByIdempotencyKeyAndUserIdAndType("async-key", "user123", TransactionType.DEPOSIT))
+                .thenReturn(Optional.of(accepted));
+
+        PendingCommand result = pendingCommandService.submit(WalletCommand.builder()
+                .type(TransactionType.DEPOSIT)
+                .userId("user123")
+                .amount(new BigDecimal("10.00"))
+                .idempotencyKey("async-key")
+                .build());
+
+        assertSame(accepted, result);
+        verify(pendingCommandRepository, never()).save(any());
+    }
+
+    @Test
+    void processPending_shouldRecordResultOfEachCommand() {
+        PendingCommand deposit = pending(TransactionType.DEPOSIT);
+        PendingCommand withdrawal = pending(TransactionType.WITHDRAWAL);
+        when(pendingCommandRepository.findPendingWithLock(any(Limit.class))).thenReturn(List.of(deposit, withdrawal));
+
+        Transaction transaction = Transaction.builder().id(UUID.randomUUID()).balanceAfter(new BigDecimal("10.00")).build();
+        when(idempotencyService.executeBatchWithIdempotency(any(), any())).thenReturn(List.of(
+                CommandResult.success(transaction),
+                CommandResult.failure(new UnprocessableEntityException("Insufficient funds"))));
+
+        pendingCommandService.processPending();
+
+        assertEquals(CommandStatus.COMPLETED, deposit.getStatus());
+        assertEquals(transaction.getId(), deposit.getTransactionId());
+        assertEquals(new BigDecimal("10.00"), deposit.getBalanceAfter());
+        assertEquals(CommandStatus.FAILED, withdrawal.getStatus());
+        assertEquals(422, withdrawal.getErrorStatus());
+        assertEquals("Insufficient funds", withdrawal.getError());
+        verify(pendingCommandRepository).saveAll(List.of(deposit, withdrawal));
+    }
+
+    @Test
+    void processPending_shouldTruncateErrorToColumnSize() {
+        PendingCommand withdrawal = pending(TransactionType.WITHDRAWAL);
+        when(pendingCommandRepository.findPendingWithLock(any(Limit.class))).thenReturn(List.of(withdrawal));
+        when(idempotencyService.executeBatchWithIdempotency(any(), any())).thenReturn(List.of(
+                CommandResult.failure(new UnprocessableEntityException("x".repeat(1000)))));
+
+        pendingCommandService.processPending();
+
+        assertEquals(CommandStatus.FAILED, withdrawal.getStatus());
+        assertEquals(PendingCommandService.MAX_ERROR_LENGTH, withdrawal.getError().length());
+    }
+
+    @Test
+    void processPending_shouldKeepCommandPending_whenFailureIsTransient() {
+        walletProperties.getAsync().setBatchSize(1);
+        PendingCommand deposit = pending(TransactionType.DEPOSIT);
+        when(pendingCommandRepository.findPendingWithLock(any(Limit.class))).thenReturn(List.of(deposit));
+        when(pendingCommandRepository.findById(deposit.getId())).thenReturn(Optional.of(deposit));
+        when(idempotencyService.executeBatchWithIdempotency(any(), any()))
+                .thenThrow(new WalletBusyException("Wallet is busy, please retry: user123", Duration.ofSeconds(1)));
+
+        pendingCommandService.processPending();
+
+        assertEquals(CommandStatus.PENDING, deposit.getStatus());
+        assertEquals(1, deposit.getAttempts());
+        assertNull(deposit.getProcessedAt());
+        verify(pendingCommandRepository).save(deposit);
+        verify(pendingCommandRepository, times(1)).findPendingWithLock(any(Limit.class));
+    }
+
+    @Test
+    void processPending_shouldFailCommand_whenTransientFailuresReachMaxAttempts() {
+        walletProperties.getAsync().setBatchSize(1);
+        PendingCommand deposit = pending(TransactionType.DEPOSIT);
+        deposit.setAttempts(walletProperties.getAsync().getMaxAttempts() - 1);
+        when(pendingCommandRepository.findPendingWithLock(any(Limit.class))).thenReturn(List.of(deposit));
+        when(pendingCommandRepository.findById(deposit.getId())).thenReturn(Optional.of(deposit));
+        when(idempotencyService.executeBatchWithIdempotency(any(), any()))
+                .thenThrow(new WalletBusyException("Wallet is busy, please retry: user123", Duration.ofSeconds(1)));
+
+        pendingCommandService.processPending();
+
+        assertEquals(CommandStatus.FAILED, deposit.getStatus());
+        assertEquals(429, deposit.getErrorStatus());
+        assertNotNull(deposit.getProcessedAt());
+    }
+
+    @Test
+    void processPending_shouldFailOnlyTheCommandThatFailed_whenFailureIsDeterministic() {
+        PendingCommand first = pending(TransactionType.DEPOSIT);
+        PendingCommand second = pending(TransactionType.DEPOSIT);
+        when(pendingCommandRepository.findPendingWithLock(any(Limit.class)))
+                .thenReturn(List.of(first, second), List.of(first), List.of());
+        when(pendingCommandRepository.findById(first.getId())).thenReturn(Optional.of(first));
+        when(idempotencyService.executeBatchWithIdempotency(any(), any()))
+                .thenThrow(new UnprocessableEntityException("Cannot transfer to the same wallet"));
+
+        pendingCommandService.processPending();
+
+        assertEquals(CommandStatus.FAILED, first.getStatus());
+        assertEquals(422, first.getErrorStatus());
+        assertEquals(0, first.getAttempts());
+        assertEquals(CommandStatus.PENDING, second.getStatus());
+        verify(pendingCommandRepository, never()).findById(second.getId());
+    }
+
+    @Test
+    void processPending_shouldDoNothing_whenPollerIsDisabled() {
+        walletProperties.getAsync().setPollerEnabled(false);
+
+        pendingCommandService.processPending();
+
+        verifyNoInteractions(pendingCommandRepository, idempotencyService);
+    }
+
+    private PendingCommand pending(TransactionType type) {
+        return PendingCommand.builder()
+                .id(UUID.randomUUID())
+                .type(type)
+                .userId("user123")
+                .amount(new BigDecimal("10.00"))
+                .status(CommandStatus.PENDING)
+                .build();
+    }
+}
@@ -1,28 +1,48 @@
 package com.rpay.wallet.service;
 
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.config.WalletProperties.LockWait;
+import com.rpay.wallet.config.WalletProperties.WriteMode;
+import com.rpay.wallet.dto.HistoricalBalance;
 import com.rpay.wallet.dto.TransactionRequest;
 import com.rpay.wallet.dto.TransferRequest;
 import com.rpay.wallet.exception.NotFoundException;
 import com.rpay.wallet.exception.UnprocessableEntityException;
+import com.rpay.wallet.exception.WalletBusyException;
+import com.rpay.wallet.model.BalanceCheckpoint;
+import com.rpay.wallet.model.BalanceCheckpointId;
 import com.rpay.wallet.model.Transaction;
 import com.rpay.wallet.model.TransactionType;
 import com.rpay.wallet.model.Wallet;
+import com.rpay.wallet.repository.BalanceCheckpointRepository;
+import com.rpay.wallet.repository.DatabasePlatform;
+import com.rpay.wallet.repository.LedgerRepository;
 import com.rpay.wallet.repository.TransactionRepository;
 import com.rpay.wallet.repository.WalletRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.CannotAcquireLockException;
 
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -34,9 +54,178 @@ class TransactionServiceTest {
     @Mock
     private WalletRepository walletRepository;
 
+    @Mock
+    private LedgerRepository ledgerRepository;
+
+    @Mock
+    private BalanceCheckpointRepository balanceCheckpointRepository;
+
+    @Mock
+    private DatabasePlatform databasePlatform;
+
+    @Mock
+    private ShardedBalanceService shardedBalanceService;
+
+    @Spy
+    private HistoricalBalanceCache historicalBalanceCache =
+            new HistoricalBalanceCache(new WalletProperties(), new SimpleMeterRegistry());
+
+    @Spy
+    private BalanceCache balanceCache = new BalanceCache(new WalletProperties(), new SimpleMeterRegistry());
+
+    @Spy
+    private WalletProperties walletProperties = new WalletProperties();
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @InjectMocks
     private TransactionService transactionService;
 
+    @Test
+    void performWithdraw_shouldThrowWalletBusy_whenLockIsNotAvailableInNoWaitMode() {
+        walletProperties.getLockWait().setMode(LockWait.Mode.NOWAIT);
+        when(walletRepository.findByUserIdWithLockNoWait("user123"))
+                .thenThrow(new CannotAcquireLockException("could not obtain lock on row in relation \"wallets\""));
+
+        TransactionRequest request = new TransactionRequest();
+        request.setUserId("user123");
+        request.setAmount(new BigDecimal("40.00"));
+
+        WalletBusyException exception = assertThrows(WalletBusyException.class,
+                () -> transactionService.performWithdraw(request));
+
+        assertEquals(walletProperties.getLockWait().getRetryAfter(), exception.getRetryAfter());
+        assertEquals(1.0, meterRegistry.counter("wallet.lock.rejected", "mode", "nowait").count());
+        verify(walletRepository, never()).findByUserIdWithLock(any());
+        verify(transactionRepository, never()).save(any());
+    }
+
+    @Test
+    void performDeposit_shouldSetLockTimeoutBeforeLocking_whenLockWaitModeIsTimeout() {
+        walletProperties.getLockWait().setMode(LockWait.Mode.TIMEOUT);
+        Wallet wallet = new Wallet("user123");
+        when(walletRepository.findByUserIdWithLock("user123")).thenReturn(Optional.of(wallet));
+        when(transactionRepository.save(any(Transaction.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        TransactionRequest request = new TransactionRequest();
+        request.setUserId("user123");
+        request.setAmount(new BigDecimal("40.00"));
+
+        transactionService.performDeposit(request);
+
+        var inOrder = inOrder(walletRepository);
+        inOrder.verify(walletRepository).setTransactionLockTimeout("200ms");
+        inOrder.verify(walletRepository).findByUserIdWithLock("user123");
+    }
+
+    @Test
+    void performWithdraw_shouldReadWalletWithoutLock_whenWriteModeIsOptimistic() {
+        walletProperties.setWriteMode(WriteMode.OPTIMISTIC);
+        Wallet wallet = new Wallet("user123");
+        wallet.setBalance(new BigDecimal("100.00"));
+        when(walletRepository.findByUserId("user123")).thenReturn(Optional.of(wallet));
+        when(transactionRepository.save(any(Transaction.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        TransactionRequest request = new TransactionRequest();
+        request.setUserId("user123");
+        request.setAmount(new BigDecimal("40.00"));
+
+        Transaction result = transactionService.performWithdraw(request);
+
+        assertEquals(new BigDecimal("60.00"), result.getBalanceAfter());
+        verify(walletRepository, never()).findByUserIdWithLock(any());
+        verify(walletRepository).save(wallet);
+    }
+
+    @Test
+    void applyBatch_shouldApplyCommandsInOrderAndIsolateFailures() {
+        Wallet wallet = new Wallet("user123");
+        wallet.setBalance(new BigDecimal("10.00"));
+        when(databasePlatform.isPostgres()).thenReturn(true);
+        when(walletRepository.findAllByUserIdInWithLock(List.of("user123"))).thenReturn(List.of(wallet));
+
+        TransactionRequest deposit = new TransactionRequest();
+        deposit.setUserId("user123");
+        deposit.setAmount(new BigDecimal("5.00"));
+        TransactionRequest withdraw = new TransactionRequest();
+        withdraw.setUserId("user123");
+        withdraw.setAmount(new BigDecimal("50.00"));
+
+        List<CommandResult> results = transactionService.applyBatch(List.of(
+                WalletCommand.deposit(deposit, null),
+                WalletCommand.withdraw(withdraw, null)));
+
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(new BigDecimal("15.00"), results.get(0).getTransaction().getBalanceAfter());
+        assertEquals(1L, results.get(0).getTransaction().getSeq());
+        assertFalse(results.get(1).isSuccess());
+        assertInstanceOf(UnprocessableEntityException.class, results.get(1).getError());
+        assertEquals(new BigDecimal("15.00"), wallet.getBalance());
+        assertEquals(1L, wallet.getLastSeq());
+        verify(walletRepository).saveAll(any());
+        verify(transactionRepository).saveAll(argThat(ledger -> ((List<?>) ledger).size() == 1));
+    }
+
+    @Test
+    void applyBatch_shouldLockWalletsOneByOneInTransferOrder_whenDatabaseIsNotPostgres() {
+        // "B-user" vem antes de "a-user" em String.compareTo, a ordem usada por performTransfer
+        Wallet lower = new Wallet("a-user");
+        lower.setBalance(new BigDecimal("10.00"));
+        Wallet upper = new Wallet("B-user");
+        when(walletRepository.findByUserIdWithLock("a-user")).thenReturn(Optional.of(lower));
+        when(walletRepository.findByUserIdWithLock("B-user")).thenReturn(Optional.of(upper));
+
+        List<CommandResult> results = transactionService.applyBatch(List.of(WalletCommand.transfer(
+                new TransferRequest("a-user", "B-user", new BigDecimal("5.00"), null), null)));
+
+        assertTrue(results.get(0).isSuccess());
+        InOrder inOrder = inOrder(walletRepository);
+        inOrder.verify(walletRepository).findByUserIdWithLock("B-user");
+        inOrder.verify(walletRepository).findByUserIdWithLock("a-user");
+        verify(walletRepository, never()).findAllByUserIdInWithLock(any());
+    }
+
+    @Test
+    void applyBatch_shouldThrowWalletBusy_whenLockIsNotAvailableInNoWaitMode() {
+        walletProperties.getLockWait().setMode(LockWait.Mode.NOWAIT);
+        when(databasePlatform.isPostgres()).thenReturn(true);
+        when(walletRepository.findAllByUserIdInWithLockNoWait(List.of("user123")))
+                .thenThrow(new CannotAcquireLockException("could not obtain lock on row in relation \"wallets\""));
+
+        TransactionRequest deposit = new TransactionRequest();
+        deposit.setUserId("user123");
+        deposit.setAmount(new BigDecimal("5.00"));
+
+        WalletBusyException exception = assertThrows(WalletBusyException.class,
+                () -> transactionService.applyBatch(List.of(WalletCommand.deposit(deposit, null))));
+
+        assertEquals(walletProperties.getLockWait().getRetryAfter(), exception.getRetryAfter());
+        assertEquals(1.0, meterRegistry.counter("wallet.lock.rejected", "mode", "nowait").count());
+        verify(walletRepository, never()).findAllByUserIdInWithLock(any());
+        verify(transactionRepository, never()).saveAll(any());
+    }
+
+    @Test
+    void applyBatch_shouldSetLockTimeoutOnceBeforeLocking_whenLockWaitModeIsTimeout() {
+        walletProperties.getLockWait().setMode(LockWait.Mode.TIMEOUT);
+        Wallet from = new Wallet("a-user");
+        from.setBalance(new BigDecimal("10.00"));
+        Wallet to = new Wallet("b-user");
+        when(walletRepository.findByUserIdWithLock("a-user")).thenReturn(Optional.of(from));
+        when(walletRepository.findByUserIdWithLock("b-user")).thenReturn(Optional.of(to));
+
+        List<CommandResult> results = transactionService.applyBatch(List.of(WalletCommand.transfer(
+                new TransferRequest("a-user", "b-user", new BigDecimal("5.00"), null), null)));
+
+        assertTrue(results.get(0).isSuccess());
+        InOrder inOrder = inOrder(walletRepository);
+        inOrder.verify(walletRepository).setTransactionLockTimeout("200ms");
+        inOrder.verify(walletRepository).findByUserIdWithLock("a-user");
+        inOrder.verify(walletRepository).findByUserIdWithLock("b-user");
+        verify(walletRepository).setTransactionLockTimeout(any());
+    }
+
     @Test
     void getHistoricalBalance_shouldReturnBalanceFromLastTransaction_whenTransactionExists() {
         // Arrange
@@ -44,16 +233,38 @@ class TransactionServiceTest {
         LocalDateTime timestamp = LocalDateTime.now().minusDays(1);
         BigDecimal expectedBalance = new BigDecimal("75.25");
 
-        Transaction lastTransaction = new Transaction();
-        lastTransaction.setBalanceAfter(expectedBalance);
-        when(transactionRepository.findLastTransactionBeforeTimestamp(userId, timestamp))
-                .thenReturn(Optional.of(lastTransaction));
+        when(walletRepository.findHistoricalBalance(userId, timestamp))
+                .thenReturn(Optional.of(new HistoricalBalance(LocalDateTime.now().minusDays(2), expectedBalance, timestamp)));
 
         // Act
         BigDecimal result = transactionService.getHistoricalBalance(userId, timestamp);
 
         // Assert
         assertEquals(expectedBalance, result);
+        verify(walletRepository, never()).findByUserId(any());
+    }
+
+    @Test
+    void getHistoricalBalance_shouldCachePastBalances_andBypassCacheNearNow() {
+        // Arrange
+        String userId = "user123";
+        LocalDateTime past = LocalDateTime.now().minusDays(1);
+        LocalDateTime recent = LocalDateTime.now().minusSeconds(10);
+
+        when(walletRepository.findHistoricalBalance(eq(userId), any()))
+                .thenReturn(Optional.of(new HistoricalBalance(LocalDateTime.now().minusDays(2), new BigDecimal("75.25"),
+                        LocalDateTime.now().minusDays(2))));
+
+        // Act
+        transactionService.getHistoricalBalance(userId, past);
+        transactionService.getHistoricalBalance(userId, past);
+        transactionService.getHistoricalBalance(userId, recent);
+        BigDecimal result = transactionService.getHistoricalBalance(userId, recent);
+
+        // Assert
+        assertEquals(new BigDecimal("75.25"), result);
+        verify(walletRepository, times(1)).findHistoricalBalance(userId, past);
+        verify(walletRepository, times(2)).findHistoricalBalance(userId, recent);
     }
 
     @Test
@@ -62,12 +273,8 @@ class TransactionServiceTest {
         String userId = "user123";
         LocalDateTime timestamp = LocalDateTime.now().minusDays(1);
 
-        Wallet wallet = new Wallet(userId);
-        wallet.setCreatedAt(LocalDateTime.now().minusDays(2));
-
-        when(transactionRepository.findLastTransactionBeforeTimestamp(userId, timestamp))
-                .thenReturn(Optional.empty());
-        when(walletRepository.findByUserId(userId)).thenReturn(Optional.of(wallet));
+        when(walletRepository.findHistoricalBalance(userId, timestamp))
+                .thenReturn(Optional.of(new HistoricalBalance(LocalDateTime.now().minusDays(2), null, null)));
 
         // Act
         BigDecimal result = transactionService.getHistoricalBalance(userId, timestamp);
@@ -76,18 +283,57 @@ class TransactionServiceTest {
         assertEquals(BigDecimal.ZERO, result);
     }
 
+    @Test
+    void getHistoricalBalance_shouldSumChangesSinceCheckpoint_whenLastTransactionHasNoBalanceAfter() {
+        // Arrange
+        String userId = "merchant";
+        LocalDateTime timestamp = LocalDateTime.now().minusDays(1);
+        LocalDate checkpointDay = timestamp.toLocalDate().minusDays(2);
+
+        when(walletRepository.findHistoricalBalance(userId, timestamp))
+                .thenReturn(Optional.of(new HistoricalBalance(LocalDateTime.now().minusDays(10), null, timestamp)));
+        when(balanceCheckpointRepository.findFirstByUserIdAndCheckpointDateBeforeOrderByCheckpointDateDesc(userId,
+                timestamp.toLocalDate()))
+                .thenReturn(Optional.of(new BalanceCheckpoint(userId, checkpointDay, new BigDecimal("100.00"), null)));
+        when(transactionRepository.sumChangesBetween(userId, checkpointDay.plusDays(1).atStartOfDay(), timestamp))
+                .thenReturn(new BigDecimal("30.00"));
+
+        // Act
+        BigDecimal result = transactionService.getHistoricalBalance(userId, timestamp);
+
+        // Assert
+        assertEquals(new BigDecimal("130.00"), result);
+    }
+
+    @Test
+    void getHistoricalBalance_shouldThrowException_whenTimestampIsInsideArchivedDay() {
+        // Arrange
+        String userId = "user123";
+        LocalDateTime timestamp = LocalDateTime.now().minusDays(3);
+        LocalDate day = timestamp.toLocalDate();
+
+        when(walletRepository.findHistoricalBalance(userId, timestamp))
+                .thenReturn(Optional.of(new HistoricalBalance(LocalDateTime.now().minusDays(10), null, null)));
+        when(balanceCheckpointRepository.existsById(new BalanceCheckpointId(userId, day))).thenReturn(true);
+        when(transactionRepository.existsByFromUserIdAndCreatedAtBetween(userId, timestamp, day.atTime(LocalTime.MAX)))
+                .thenReturn(false);
+
+        // Act & Assert
+        UnprocessableEntityException exception = assertThrows(UnprocessableEntityException.class,
+                () -> transactionService.getHistoricalBalance(userId, timestamp));
+
+        assertEquals("Transactions of that day were archived; only its end-of-day balance is available",
+                exception.getMessage());
+    }
+
     @Test
     void getHistoricalBalance_shouldThrowException_whenWalletDidNotExistAtTimestamp() {
         // Arrange
         String userId = "user123";
         LocalDateTime timestamp = LocalDateTime.now().minusDays(5);
 
-        Wallet wallet = new Wallet(userId);
-        wallet.setCreatedAt(LocalDateTime.now().minusDays(1));
-
-        when(transactionRepository.findLastTransactionBeforeTimestamp(userId, timestamp))
-                .thenReturn(Optional.empty());
-        when(walletRepository.findByUserId(userId)).thenReturn(Optional.of(wallet));
+        when(walletRepository.findHistoricalBalance(userId, timestamp))
+                .thenReturn(Optional.of(new HistoricalBalance(LocalDateTime.now().minusDays(1), null, null)));
 
         // Act & Assert
         UnprocessableEntityException exception = assertThrows(UnprocessableEntityException.class,
@@ -96,6 +342,22 @@ class TransactionServiceTest {
         assertEquals("Wallet did not exist at the specified time", exception.getMessage());
     }
 
+    @Test
+    void getHistoricalBalance_shouldThrowNotFound_whenWalletDoesNotExist() {
+        // Arrange
+        String userId = "missing";
+        LocalDateTime timestamp = LocalDateTime.now().minusDays(1);
+
+        when(walletRepository.findHistoricalBalance(userId, timestamp))
+                .thenReturn(Optional.empty());
+
+        // Act & Assert
+        NotFoundException exception = assertThrows(NotFoundException.class,
+                () -> transactionService.getHistoricalBalance(userId, timestamp));
+
+        assertEquals("Wallet not found for user: missing", exception.getMessage());
+    }
+
     @Test
     void performDeposit_shouldIncreaseBalanceAndCreateTransaction() {
         // Arrange
@@ -119,6 +381,7 @@ class TransactionServiceTest {
                 .amount(depositAmount)
                 .balanceAfter(expectedBalance)
                 .description("Test deposit")
+                .seq(1L)
                 .build();
 
         when(walletRepository.findByUserIdWithLock(userId)).thenReturn(Optional.of(wallet));
@@ -151,6 +414,167 @@ class TransactionServiceTest {
         assertEquals("Wallet not found for user: " + userId, exception.getMessage());
     }
 
+    @Test
+    void performDeposit_shouldCreditInSingleStatement_whenAtomicWriteMode() {
+        // Arrange
+        walletProperties.setWriteMode(WriteMode.ATOMIC);
+        String userId = "user123";
+        TransactionRequest request = new TransactionRequest(userId, new BigDecimal("25.00"), "Test deposit");
+
+        when(ledgerRepository.insertDeposit(any(Transaction.class))).thenAnswer(invocation -> {
+            Transaction transaction = invocation.getArgument(0);
+            transaction.setBalanceAfter(new BigDecimal("75.00"));
+            transaction.setSeq(1L);
+            return Optional.of(transaction);
+        });
+
+        // Act
+        Transaction result = transactionService.performDeposit(request);
+
+        // Assert
+        assertNotNull(result.getId());
+        assertNotNull(result.getCreatedAt());
+        assertEquals(TransactionType.DEPOSIT, result.getType());
+        assertEquals(userId, result.getFromUserId());
+        assertEquals(new BigDecimal("75.00"), result.getBalanceAfter());
+        verify(walletRepository, never()).findByUserIdWithLock(any());
+        verify(transactionRepository, never()).save(any(Transaction.class));
+    }
+
+    @Test
+    void performDeposit_shouldWriteBalanceThroughToCache_unlessOlderThanCachedBalance() {
+        walletProperties.setWriteMode(WriteMode.ATOMIC);
+        String userId = "user123";
+        balanceCache.putAfterCommit(userId, 9, new BigDecimal("90.00"));
+
+        when(ledgerRepository.insertDeposit(any(Transaction.class))).thenAnswer(invocation -> {
+            Transaction transaction = invocation.getArgument(0);
+            transaction.setBalanceAfter(new BigDecimal("75.00"));
+            transaction.setSeq(8L);
+            return Optional.of(transaction);
+        });
+        transactionService.performDeposit(new TransactionRequest(userId, new BigDecimal("25.00"), "Late commit"));
+        assertEquals(new BigDecimal("90.00"), balanceCache.get(userId).orElseThrow());
+
+        when(ledgerRepository.insertDeposit(any(Transaction.class))).thenAnswer(invocation -> {
+            Transaction transaction = invocation.getArgument(0);
+            transaction.setBalanceAfter(new BigDecimal("115.00"));
+            transaction.setSeq(10L);
+            return Optional.of(transaction);
+        });
+        transactionService.performDeposit(new TransactionRequest(userId, new BigDecimal("25.00"), "Next deposit"));
+        assertEquals(new BigDecimal("115.00"), balanceCache.get(userId).orElseThrow());
+    }
+
+    @Test
+    void performDeposit_shouldThrowException_whenAtomicWriteModeAndWalletNotFound() {
+        // Arrange
+        walletProperties.setWriteMode(WriteMode.ATOMIC);
+        TransactionRequest request = new TransactionRequest("nonexistent", new BigDecimal("25.00"), null);
+
+        when(ledgerRepository.insertDeposit(any(Transaction.class))).thenReturn(Optional.empty());
+
+        // Act & Assert
+        NotFoundException exception = assertThrows(NotFoundException.class,
+                () -> transactionService.performDeposit(request));
+
+        assertEquals("Wallet not found for user: nonexistent", exception.getMessage());
+    }
+
+    @Test
+    void performDeposit_shouldCreditBalanceSlot_whenWalletIsSharded() {
+        // Arrange
+        String userId = "merchant";
+        TransactionRequest request = new TransactionRequest(userId, new BigDecimal("25.00"), "Test deposit");
+
+        when(shardedBalanceService.isSharded(userId)).thenReturn(true);
+        when(shardedBalanceService.credit(userId, new BigDecimal("25.00")))
+                .thenReturn(Optional.of(new ShardedBalanceService.SlotCredit(3, 8L)));
+        when(transactionRepository.save(any(Transaction.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Act
+        Transaction result = transactionService.performDeposit(request);
+
+        // Assert
+        assertNull(result.getBalanceAfter()); // Outros slots podem ter créditos não commitados
+        assertEquals(3, result.getSlot());
+        assertEquals(8L, result.getSeq()); // Sequência do slot, sem tocar a linha da carteira
+        verifyNoInteractions(walletRepository);
+    }
+
+    @Test
+    void performDeposit_shouldCreditWalletRow_whenShardedWalletHasNoFreeSlot() {
+        // Arrange
+        String userId = "merchant";
+        TransactionRequest request = new TransactionRequest(userId, new BigDecimal("25.00"), "Test deposit");
+
+        Wallet wallet = new Wallet(userId);
+        wallet.setBalance(new BigDecimal("50.00"));
+        wallet.setSlotCount(4);
+
+        when(shardedBalanceService.isSharded(userId)).thenReturn(true);
+        when(shardedBalanceService.credit(userId, new BigDecimal("25.00"))).thenReturn(Optional.empty());
+        when(walletRepository.findByUserIdWithLock(userId)).thenReturn(Optional.of(wallet));
+        when(transactionRepository.save(any(Transaction.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Act
+        Transaction result = transactionService.performDeposit(request);
+
+        // Assert
+        assertEquals(new BigDecimal("75.00"), wallet.getBalance());
+        assertNull(result.getBalanceAfter());
+    }
+
+    @Test
+    void performWithdraw_shouldSweepBalanceSlots_whenWalletBalanceIsNotEnough() {
+        // Arrange
+        String userId = "merchant";
+        TransactionRequest request = new TransactionRequest(userId, new BigDecimal("80.00"), null);
+
+        Wallet wallet = new Wallet(userId);
+        wallet.setBalance(new BigDecimal("50.00"));
+        wallet.setSlotCount(4);
+
+        when(walletRepository.findByUserIdWithLock(userId)).thenReturn(Optional.of(wallet));
+        doAnswer(invocation -> {
+            wallet.setBalance(new BigDecimal("150.00"));
+            return null;
+        }).when(shardedBalanceService).sweepInto(wallet);
+        when(transactionRepository.save(any(Transaction.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Act
+        Transaction result = transactionService.performWithdraw(request);
+
+        // Assert
+        assertEquals(new BigDecimal("70.00"), wallet.getBalance());
+        assertNull(result.getBalanceAfter());
+    }
+
+    @Test
+    void performWithdraw_shouldFallBackToLockedPath_whenAtomicWriteModeAndWalletIsSharded() {
+        // Arrange
+        walletProperties.setWriteMode(WriteMode.ATOMIC);
+        String userId = "merchant";
+        TransactionRequest request = new TransactionRequest(userId, new BigDecimal("80.00"), null);
+
+        Wallet wallet = new Wallet(userId);
+        wallet.setBalance(new BigDecimal("100.00"));
+        wallet.setSlotCount(4);
+
+        when(ledgerRepository.insertWithdrawal(any(Transaction.class))).thenReturn(Optional.empty());
+        when(walletRepository.findSlotCountByUserId(userId)).thenReturn(Optional.of(4));
+        when(walletRepository.findByUserIdWithLock(userId)).thenReturn(Optional.of(wallet));
+        when(transactionRepository.save(any(Transaction.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // Act
+        Transaction result = transactionService.performWithdraw(request);
+
+        // Assert
+        assertEquals(new BigDecimal("20.00"), wallet.getBalance());
+        assertNull(result.getBalanceAfter());
+        verify(walletRepository).save(wallet);
+    }
+
     @Test
     void performWithdraw_shouldDecreaseBalanceAndCreateTransaction_whenSufficientFunds() {
         // Arrange
@@ -174,6 +598,7 @@ class TransactionServiceTest {
                 .amount(withdrawAmount)
                 .balanceAfter(expectedBalance)
                 .description("Test withdrawal")
+                .seq(1L)
                 .build();
 
         when(walletRepository.findByUserIdWithLock(userId)).thenReturn(Optional.of(wallet));
@@ -214,6 +639,61 @@ class TransactionServiceTest {
         verify(transactionRepository, never()).save(any(Transaction.class));
     }
 
+    @Test
+    void performWithdraw_shouldDebitInSingleStatement_whenAtomicWriteMode() {
+        // Arrange
+        walletProperties.setWriteMode(WriteMode.ATOMIC);
+        TransactionRequest request = new TransactionRequest("user123", new BigDecimal("30.00"), "Test withdrawal");
+
+        when(ledgerRepository.insertWithdrawal(any(Transaction.class))).thenAnswer(invocation -> {
+            Transaction transaction = invocation.getArgument(0);
+            transaction.setBalanceAfter(new BigDecimal("70.00"));
+            transaction.setSeq(1L);
+            return Optional.of(transaction);
+        });
+
+        // Act
+        Transaction result = transactionService.performWithdraw(request);
+
+        // Assert
+        assertEquals(TransactionType.WITHDRAWAL, result.getType());
+        assertEquals(new BigDecimal("70.00"), result.getBalanceAfter());
+        verify(walletRepository, never()).findByUserIdWithLock(any());
+        verify(walletRepository, never()).findSlotCountByUserId(any());
+    }
+
+    @Test
+    void performWithdraw_shouldThrowException_whenAtomicWriteModeAndInsufficientFunds() {
+        // Arrange
+        walletProperties.setWriteMode(WriteMode.ATOMIC);
+        TransactionRequest request = new TransactionRequest("user123", new BigDecimal("30.00"), null);
+
+        when(ledgerRepository.insertWithdrawal(any(Transaction.class))).thenReturn(Optional.empty());
+        when(walletRepository.findSlotCountByUserId("user123")).thenReturn(Optional.of(0));
+
+        // Act & Assert
+        UnprocessableEntityException exception = assertThrows(UnprocessableEntityException.class,
+                () -> transactionService.performWithdraw(request));
+
+        assertEquals("Insufficient funds", exception.getMessage());
+    }
+
+    @Test
+    void performWithdraw_shouldThrowException_whenAtomicWriteModeAndWalletNotFound() {
+        // Arrange
+        walletProperties.setWriteMode(WriteMode.ATOMIC);
+        TransactionRequest request = new TransactionRequest("nonexistent", new BigDecimal("30.00"), null);
+
+        when(ledgerRepository.insertWithdrawal(any(Transaction.class))).thenReturn(Optional.empty());
+        when(walletRepository.findSlotCountByUserId("nonexistent")).thenReturn(Optional.empty());
+
+        // Act & Assert
+        NotFoundException exception = assertThrows(NotFoundException.class,
+                () -> transactionService.performWithdraw(request));
+
+        assertEquals("Wallet not found for user: nonexistent", exception.getMessage());
+    }
+
     @Test
     void performTransfer_shouldMoveFundsBetweenWallets_whenValidRequest() {
         // Arrange
@@ -242,6 +722,7 @@ class TransactionServiceTest {
                 .amount(transferAmount)
                 .balanceAfter(new BigDecimal("50.00"))
                 .description("Test transfer")
+                .seq(1L)
                 .build();
 
         when(walletRepository.findByUserIdWithLock(fromUserId)).thenReturn(Optional.of(fromWallet));
@@ -259,6 +740,66 @@ class TransactionServiceTest {
         verify(transactionRepository, times(2)).save(any(Transaction.class));
     }
 
+    @Test
+    void performTransfer_shouldMoveFundsInSingleStatement_whenAtomicWriteMode() {
+        // Arrange
+        walletProperties.setWriteMode(WriteMode.ATOMIC);
+        TransferRequest request = new TransferRequest("user1", "user2", new BigDecimal("50.00"), "Test transfer");
+
+        when(ledgerRepository.insertTransfer(any(Transaction.class), any(Transaction.class))).thenAnswer(invocation -> {
+            Transaction out = invocation.getArgument(0);
+            Transaction in = invocation.getArgument(1);
+            out.setBalanceAfter(new BigDecimal("50.00"));
+            in.setBalanceAfter(new BigDecimal("75.00"));
+            out.setSeq(1L);
+            in.setSeq(1L);
+            return Optional.of(out);
+        });
+
+        // Act
+        Transaction result = transactionService.performTransfer(request);
+
+        // Assert
+        assertEquals(TransactionType.TRANSFER_OUT, result.getType());
+        assertEquals("user1", result.getFromUserId());
+        assertEquals("user2", result.getToUserId());
+        assertEquals(new BigDecimal("50.00"), result.getBalanceAfter());
+        verify(walletRepository, never()).findByUserIdWithLock(any());
+        verify(transactionRepository, never()).save(any(Transaction.class));
+    }
+
+    @Test
+    void performTransfer_shouldThrowException_whenAtomicWriteModeAndToWalletNotFound() {
+        // Arrange
+        walletProperties.setWriteMode(WriteMode.ATOMIC);
+        TransferRequest request = new TransferRequest("user1", "nonexistent", new BigDecimal("50.00"), null);
+
+        when(ledgerRepository.insertTransfer(any(Transaction.class), any(Transaction.class))).thenReturn(Optional.empty());
+        when(walletRepository.findSlotCountByUserId("nonexistent")).thenReturn(Optional.empty());
+
+        // Act & Assert
+        NotFoundException exception = assertThrows(NotFoundException.class,
+                () -> transactionService.performTransfer(request));
+
+        assertEquals("Wallet not found for user: nonexistent", exception.getMessage());
+    }
+
+    @Test
+    void performTransfer_shouldThrowException_whenAtomicWriteModeAndInsufficientFunds() {
+        // Arrange
+        walletProperties.setWriteMode(WriteMode.ATOMIC);
+        TransferRequest request = new TransferRequest("user1", "user2", new BigDecimal("150.00"), null);
+
+        when(ledgerRepository.insertTransfer(any(Transaction.class), any(Transaction.class))).thenReturn(Optional.empty());
+        when(walletRepository.findSlotCountByUserId(any())).thenReturn(Optional.of(0));
+
+        // Act & Assert
+        UnprocessableEntityException exception = assertThrows(UnprocessableEntityException.class,
+                () -> transactionService.performTransfer(request));
+
+        assertEquals("Insufficient funds", exception.getMessage());
+    }
+
     @Test
     void performTransfer_shouldThrowException_whenSameWallet() {
         // Arrange
@@ -1,28 +1,39 @@
 package com.rpay.wallet.service;
 
+import com.rpay.wallet.config.WalletProperties;
+import com.rpay.wallet.config.WalletProperties.WriteMode;
+import com.rpay.wallet.dto.IdempotentResponse;
 import com.rpay.wallet.dto.TransactionRequest;
 import com.rpay.wallet.dto.TransferRequest;
 import com.rpay.wallet.exception.ConflictException;
+import com.rpay.wallet.exception.IdempotentReplayException;
 import com.rpay.wallet.exception.NotFoundException;
+import com.rpay.wallet.exception.UnprocessableEntityException;
 import com.rpay.wallet.model.Transaction;
 import com.rpay.wallet.model.Wallet;
 import com.rpay.wallet.repository.WalletRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.Optional;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -38,6 +49,30 @@ class WalletServiceTest {
     @Mock
     private IdempotencyService idempotencyService;
 
+    @Mock
+    private ShardedBalanceService shardedBalanceService;
+
+    @Mock
+    private WalletCommandQueue walletCommandQueue;
+
+    @Spy
+    private WalletProperties walletProperties = new WalletProperties();
+
+    @Spy
+    private IdempotencyInFlightRegistry idempotencyInFlightRegistry = new IdempotencyInFlightRegistry(new SimpleMeterRegistry());
+
+    @Spy
+    private BalanceCache balanceCache = new BalanceCache(new WalletProperties(), new SimpleMeterRegistry());
+
+    @Mock
+    private BulkDepositService bulkDepositService;
+
+    @Mock
+    private BalanceSeriesService balanceSeriesService;
+
+    @Mock
+    private PendingCommandService pendingCommandService;
+
     @InjectMocks
     private WalletService walletService;
 
@@ -80,6 +115,34 @@ class WalletServiceTest {
         assertEquals(expectedBalance, result);
     }
 
+    @Test
+    void getBalance_shouldServeRepeatedReadsFromCache() {
+        String userId = "user123";
+        Wallet wallet = new Wallet(userId);
+        wallet.setBalance(new BigDecimal("100.50"));
+        wallet.setLastSeq(3);
+        when(walletRepository.findByUserId(userId)).thenReturn(Optional.of(wallet));
+
+        assertEquals(new BigDecimal("100.50"), walletService.getBalance(userId));
+        assertEquals(new BigDecimal("100.50"), walletService.getBalance(userId));
+
+        verify(walletRepository, times(1)).findByUserId(userId);
+    }
+
+    @Test
+    void getBalance_shouldSumBalanceSlots_whenWalletIsSharded() {
+        String userId = "merchant";
+        Wallet wallet = new Wallet(userId);
+        wallet.setBalance(new BigDecimal("100.00"));
+        wallet.setSlotCount(8);
+        when(walletRepository.findByUserId(userId)).thenReturn(Optional.of(wallet));
+        when(shardedBalanceService.totalBalance(wallet)).thenReturn(new BigDecimal("340.00"));
+
+        BigDecimal result = walletService.getBalance(userId);
+
+        assertEquals(new BigDecimal("340.00"), result);
+    }
+
     @Test
     void getBalance_shouldThrowException_whenWalletDoesNotExist() {
         String userId = "nonexistent";
@@ -220,4 +283,88 @@ class WalletServiceTest {
         assertEquals(expectedTransaction, result);
         verify(idempotencyService).executeWithIdempotency(eq(null), eq(fromUserId), eq("TRANSFER_OUT"), any());
     }
+
+    @Test
+    void deposit_shouldEnqueueCommand_whenWriteModeIsQueued() {
+        walletProperties.setWriteMode(WriteMode.QUEUED);
+        TransactionRequest request = new TransactionRequest();
+        request.setUserId("user123");
+        request.setAmount(new BigDecimal("100.00"));
+
+        Transaction expectedTransaction = new Transaction();
+        expectedTransaction.setId(UUID.randomUUID());
+        when(walletCommandQueue.execute(any(WalletCommand.class))).thenReturn(expectedTransaction);
+
+        Transaction result = walletService.deposit(request, "deposit-queued");
+
+        assertEquals(expectedTransaction, result);
+        verify(walletCommandQueue).execute(argThat(command ->
+                command.getUserId().equals("user123") && "deposit-queued".equals(command.getIdempotencyKey())));
+        verify(idempotencyService, never()).executeWithIdempotency(any(), any(), any(), any());
+    }
+
+    @Test
+    void withdraw_shouldRetryOnVersionConflict_whenWriteModeIsOptimistic() {
+        walletProperties.setWriteMode(WriteMode.OPTIMISTIC);
+        walletProperties.getOptimistic().setInitialBackoff(Duration.ZERO);
+        TransactionRequest request = new TransactionRequest();
+        request.setUserId("user123");
+        request.setAmount(new BigDecimal("10.00"));
+
+        Transaction expectedTransaction = new Transaction();
+        expectedTransaction.setId(UUID.randomUUID());
+        when(idempotencyService.executeWithIdempotency(eq(null), eq("user123"), eq("WITHDRAWAL"), any()))
+                .thenThrow(new ObjectOptimisticLockingFailureException(Wallet.class, 1L))
+                .thenReturn(expectedTransaction);
+
+        Transaction result = walletService.withdraw(request, null);
+
+        assertEquals(expectedTransaction, result);
+        verify(idempotencyService, times(2)).executeWithIdempotency(eq(null), eq("user123"), eq("WITHDRAWAL"), any());
+    }
+
+    @Test
+    void withdraw_shouldThrowConflict_whenOptimisticRetriesAreExhausted() {
+        walletProperties.setWriteMode(WriteMode.OPTIMISTIC);
+        walletProperties.getOptimistic().setInitialBackoff(Duration.ZERO);
+        walletProperties.getOptimistic().setMaxAttempts(3);
+        TransactionRequest request = new TransactionRequest();
+        request.setUserId("user123");
+        request.setAmount(new BigDecimal("10.00"));
+
+        when(idempotencyService.executeWithIdempotency(eq(null), eq("user123"), eq("WITHDRAWAL"), any()))
+                .thenThrow(new ObjectOptimisticLockingFailureException(Wallet.class, 1L));
+
+        assertThrows(ConflictException.class, () -> walletService.withdraw(request, null));
+        verify(idempotencyService, times(3)).executeWithIdempotency(eq(null), eq("user123"), eq("WITHDRAWAL"), any());
+    }
+
+    @Test
+    void deposit_shouldReplayCachedResponse_whenIdempotencyKeyWasAlreadyProcessed() {
+        TransactionRequest request = new TransactionRequest();
+        request.setUserId("user123");
+        request.setAmount(new BigDecimal("100.00"));
+
+        IdempotentReplayException replay = new IdempotentReplayException(
+                new IdempotentResponse(UUID.randomUUID().toString(), 201, "{}".getBytes()), "Idempotent replay");
+        doThrow(replay).when(idempotencyService).replayIfCached("deposit-cached", "user123", "DEPOSIT");
+
+        assertSame(replay, assertThrows(IdempotentReplayException.class,
+                () -> walletService.deposit(request, "deposit-cached")));
+        verify(idempotencyService, never()).executeWithIdempotency(any(), any(), any(), any());
+    }
+
+    @Test
+    void withdraw_shouldRecordFailure_whenOperationIsRejected() {
+        TransactionRequest request = new TransactionRequest();
+        request.setUserId("user123");
+        request.setAmount(new BigDecimal("100.00"));
+
+        UnprocessableEntityException failure = new UnprocessableEntityException("Insufficient funds");
+        when(idempotencyService.executeWithIdempotency(eq("withdraw-key"), eq("user123"), eq("WITHDRAWAL"), any()))
+                .thenThrow(failure);
+
+        assertThrows(UnprocessableEntityException.class, () -> walletService.withdraw(request, "withdraw-key"));
+        verify(idempotencyService).recordFailure("withdraw-key", "user123", "WITHDRAWAL", failure);
+    }
 }